@@ -0,0 +1,44 @@
+/**
+ * Banks gives the benchmarks the synthetic bank of a given number of rows,
+ * generating it the first time it is needed into the directory named by the
+ * system property cuxna.bench.dir, by default cuxna-bench in the temporary
+ * directory. Every size is generated with the same settings, so that results
+ * can be compared between runs and machines.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+final class Banks {
+	// small enough for 10M rows to take about 2.3 GB of disk
+	private static final int MEMO_BYTES = 48;
+	private static final int ANSWERS = 2;
+
+	private Banks() {
+	}
+
+	/**
+	 * @param rows
+	 *            the number of questions
+	 * @return the directory holding a bank with a single quiz
+	 * @throws IOException
+	 */
+	static Path bank(int rows) throws IOException {
+		Path dir = Paths.get(System.getProperty("cuxna.bench.dir",
+				Paths.get(System.getProperty("java.io.tmpdir"), "cuxna-bench").toString()))
+				.resolve(Integer.toString(rows));
+		TableGenerator generator = new TableGenerator();
+		generator.setRows(rows);
+		generator.setMemoBytes(MEMO_BYTES);
+		generator.setAnswers(ANSWERS);
+		// only the QUESTION memos are read
+		generator.setHints(false);
+		generator.write(dir);
+		return dir;
+	}
+}
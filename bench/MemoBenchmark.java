@@ -0,0 +1,79 @@
+/**
+ * MemoBenchmark measures the reading of the text of memos from the .fpt file,
+ * in the order of the rows or in a random order. The memo cache is emptied
+ * of its budget, so that every memo is read from the file.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cuxna.dbf.DBF;
+import cuxna.dbf.LoadOptions;
+import cuxna.dbf.MemoCache;
+import cuxna.dbf.Storage;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+public class MemoBenchmark {
+	@Param({ "1000", "100000", "10000000" })
+	int rows;
+
+	@Param({ "sequential", "random" })
+	String order;
+
+	private DBF questions;
+	private int[] memoRows;
+	private int next;
+
+	@Setup
+	public void load() throws IOException {
+		LoadOptions options = new LoadOptions();
+		options.setFields("QUESTION");
+		questions = new DBF(Storage.of(Banks.bank(rows)),
+				TableGenerator.questionTable(0), options);
+		memoRows = new int[questions.getNumRecords()];
+		for (int r = 0; r < memoRows.length; r++) {
+			memoRows[r] = r;
+		}
+		if (order.equals("random")) {
+			// the same order in every run
+			Random random = new Random(1);
+			for (int r = memoRows.length - 1; r > 0; r--) {
+				int other = random.nextInt(r + 1);
+				int row = memoRows[r];
+				memoRows[r] = memoRows[other];
+				memoRows[other] = row;
+			}
+		}
+		MemoCache.getShared().setMaxBytes(0);
+	}
+
+	@Benchmark
+	public String getString() {
+		if (next == memoRows.length) {
+			next = 0;
+		}
+		return questions.readMemo(memoRows[next++], "QUESTION").toString();
+	}
+}
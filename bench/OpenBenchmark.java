@@ -0,0 +1,72 @@
+/**
+ * OpenBenchmark measures the loading of the tables of a quiz: sequentially,
+ * in parallel and by mapping the file without decoding it.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cuxna.dbf.DBF;
+import cuxna.dbf.LoadOptions;
+import cuxna.dbf.MappedDBF;
+import cuxna.dbf.Storage;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class OpenBenchmark {
+	@Param({ "1000", "100000", "10000000" })
+	int rows;
+
+	private Storage storage;
+	private String questions = TableGenerator.questionTable(0);
+	private String answers = questions + "X";
+	private LoadOptions parallel = new LoadOptions();
+
+	@Setup
+	public void generate() throws IOException {
+		storage = Storage.of(Banks.bank(rows));
+		parallel.setParallel(true);
+	}
+
+	@Benchmark
+	public DBF openQuestions() throws IOException {
+		return new DBF(storage, questions, new LoadOptions());
+	}
+
+	@Benchmark
+	public DBF openQuestionsParallel() throws IOException {
+		return new DBF(storage, questions, parallel);
+	}
+
+	@Benchmark
+	public DBF openAnswers() throws IOException {
+		return new DBF(storage, answers, new LoadOptions());
+	}
+
+	@Benchmark
+	public MappedDBF openMapped() throws IOException {
+		MappedDBF table = new MappedDBF(storage, questions);
+		table.close();
+		return table;
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * ReadBenchmark measures the reading of single cells, going through the rows
+ * in order, from a loaded DBF and from a MappedDBF decoding each cell as it
+ * is read.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cuxna.dbf.DBF;
+import cuxna.dbf.LoadOptions;
+import cuxna.dbf.MappedDBF;
+import cuxna.dbf.Storage;
+import cuxna.dbf.Table;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+public class ReadBenchmark {
+	@Param({ "1000", "100000", "10000000" })
+	int rows;
+
+	@Param({ "DBF", "MappedDBF" })
+	String table;
+
+	private Table questions;
+	private Table answers;
+	private int questionRow;
+	private int answerRow;
+
+	@Setup
+	public void load() throws IOException {
+		Storage storage = Storage.of(Banks.bank(rows));
+		String name = TableGenerator.questionTable(0);
+		if (table.equals("DBF")) {
+			questions = new DBF(storage, name, new LoadOptions());
+			answers = new DBF(storage, name + "X", new LoadOptions());
+		} else {
+			questions = new MappedDBF(storage, name);
+			answers = new MappedDBF(storage, name + "X");
+		}
+	}
+
+	@Benchmark
+	public String readString() {
+		if (answerRow == answers.getNumRecords()) {
+			answerRow = 0;
+		}
+		return answers.readString(answerRow++, "ANSWER");
+	}
+
+	@Benchmark
+	public int readInt() {
+		if (questionRow == questions.getNumRecords()) {
+			questionRow = 0;
+		}
+		return questions.readInt(questionRow++, "NUMANSWER");
+	}
+}
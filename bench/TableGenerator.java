@@ -0,0 +1,243 @@
+/**
+ * TableGenerator writes a synthetic question bank: a GTEST table listing the
+ * quizzes, and for each quiz a table of questions, with their memos, and a
+ * table of answers, its name ending with 'X', laid out as Data reads them.
+ * The content is drawn from a Random with a fixed seed, so that the same
+ * settings always give the same files.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import cuxna.dbf.DBFWriter;
+
+public class TableGenerator {
+	// the directory of the question tables, as found in the PATH field
+	static final String QUESTION_DIR = "Q";
+	// written last, holding the settings the tables were generated with
+	private static final String MARKER = "GENERATED";
+
+	private int quizzes = 1;
+	private int rows = 1000;
+	private int answers = 4;
+	private int memoBytes = 64;
+	private int answerBytes = 60;
+	private boolean hints = true;
+	private int pictureBytes;
+	private long seed = 1;
+
+	/**
+	 * @param newQuizzes
+	 *            the number of quizzes
+	 */
+	public void setQuizzes(int newQuizzes) {
+		quizzes = newQuizzes;
+	}
+
+	/**
+	 * @param newRows
+	 *            the number of questions of each quiz
+	 */
+	public void setRows(int newRows) {
+		rows = newRows;
+	}
+
+	/**
+	 * @param newAnswers
+	 *            the number of answers of each question
+	 */
+	public void setAnswers(int newAnswers) {
+		answers = newAnswers;
+	}
+
+	/**
+	 * @param newMemoBytes
+	 *            the length of the text of each memo
+	 */
+	public void setMemoBytes(int newMemoBytes) {
+		memoBytes = newMemoBytes;
+	}
+
+	/**
+	 * @param newAnswerBytes
+	 *            the length of the ANSWER field of the answer tables
+	 */
+	public void setAnswerBytes(int newAnswerBytes) {
+		answerBytes = newAnswerBytes;
+	}
+
+	/**
+	 * @param newHints
+	 *            whether the HINT and REF memos are filled, or left blank
+	 */
+	public void setHints(boolean newHints) {
+		hints = newHints;
+	}
+
+	/**
+	 * @param newPictureBytes
+	 *            the size of the PICTURE memo of every question, 0 for tables
+	 *            without pictures
+	 */
+	public void setPictureBytes(int newPictureBytes) {
+		pictureBytes = newPictureBytes;
+	}
+
+	/**
+	 * @param newSeed
+	 *            the seed of the content
+	 */
+	public void setSeed(long newSeed) {
+		seed = newSeed;
+	}
+
+	/**
+	 * @return the name of the question table of a quiz, relative to the
+	 *         directory of the bank
+	 */
+	public static String questionTable(int quiz) {
+		return QUESTION_DIR + "/T" + quiz;
+	}
+
+	/**
+	 * Writes the tables into a directory, unless they were already written
+	 * there with the same settings.
+	 *
+	 * @param dir
+	 *            the directory of the bank, created if needed
+	 * @throws IOException
+	 */
+	public void write(Path dir) throws IOException {
+		Path marker = dir.resolve(MARKER);
+		if (Files.exists(marker)
+				&& new String(Files.readAllBytes(marker), StandardCharsets.US_ASCII)
+						.equals(toString())) {
+			return;
+		}
+		Files.createDirectories(dir.resolve(QUESTION_DIR));
+		Files.deleteIfExists(marker);
+		Random random = new Random(seed);
+		DBFWriter index = new DBFWriter(dir.resolve("GTEST").toString());
+		try {
+			index.addField("PATH", 'C', 20, 0);
+			index.addField("TABLENAME", 'C', 8, 0);
+			index.addField("PRODID", 'C', 10, 0);
+			index.addField("TITLE", 'C', 40, 0);
+			for (int q = 0; q < quizzes; q++) {
+				index.setString("PATH", QUESTION_DIR + "\\");
+				index.setString("TABLENAME", "T" + q);
+				index.setString("PRODID", "BENCH" + q);
+				index.setString("TITLE", "Quiz " + q + " " + text(random, 20));
+				index.writeRecord();
+				writeQuiz(dir.resolve(questionTable(q)).toString(), random);
+			}
+		} finally {
+			index.close();
+		}
+		Files.write(marker, toString().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private void writeQuiz(String baseName, Random random) throws IOException {
+		DBFWriter questions = new DBFWriter(baseName);
+		DBFWriter answerTable = new DBFWriter(baseName + "X");
+		try {
+			questions.addField("QUESTION", 'M');
+			questions.addField("ANSWER", 'N', 9, 0);
+			questions.addField("TYPE", 'N', 2, 0);
+			questions.addField("NUMANSWER", 'N', 2, 0);
+			questions.addField("HINT", 'M');
+			questions.addField("REF", 'M');
+			if (pictureBytes > 0) {
+				questions.addField("PICTURE", 'P');
+			}
+			answerTable.addField("ANSWER", 'C', answerBytes, 0);
+			byte[] picture = new byte[pictureBytes];
+			for (int r = 0; r < rows; r++) {
+				questions.setString("QUESTION", text(random, memoBytes));
+				// a single answer, or a bitmap of the correct ones
+				boolean single = random.nextBoolean();
+				questions.setLong("TYPE", single ? 1 : 5);
+				questions.setLong("ANSWER", single ? random.nextInt(answers) + 1
+						: random.nextInt(1 << answers));
+				questions.setLong("NUMANSWER", answers);
+				if (hints) {
+					questions.setString("HINT", text(random, memoBytes));
+					questions.setString("REF", text(random, memoBytes));
+				}
+				if (pictureBytes > 0) {
+					random.nextBytes(picture);
+					questions.setBytes("PICTURE", ByteBuffer.wrap(picture));
+				}
+				questions.writeRecord();
+				for (int a = 0; a < answers; a++) {
+					answerTable.setString("ANSWER", text(random, answerBytes));
+					answerTable.writeRecord();
+				}
+			}
+		} finally {
+			questions.close();
+			answerTable.close();
+		}
+	}
+
+	/**
+	 * @return words of random lower case letters
+	 */
+	private static String text(Random random, int length) {
+		char[] text = new char[length];
+		for (int i = 0; i < length; i++) {
+			text[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+		}
+		return new String(text).trim();
+	}
+
+	@Override
+	public String toString() {
+		return "quizzes=" + quizzes + " rows=" + rows + " answers=" + answers
+				+ " memoBytes=" + memoBytes + " answerBytes=" + answerBytes + " hints="
+				+ hints + " pictureBytes=" + pictureBytes + " seed=" + seed;
+	}
+
+	/**
+	 * Writes a bank from the command line.
+	 *
+	 * @param args
+	 *            the directory, then optionally the rows of each quiz, the
+	 *            length of the memos, the answers of each question, the number
+	 *            of quizzes and the size of the pictures
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("TableGenerator dir [rows [memoBytes [answers [quizzes"
+					+ " [pictureBytes]]]]]");
+			System.exit(1);
+		}
+		TableGenerator generator = new TableGenerator();
+		if (args.length > 1) {
+			generator.setRows(Integer.parseInt(args[1]));
+		}
+		if (args.length > 2) {
+			generator.setMemoBytes(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3) {
+			generator.setAnswers(Integer.parseInt(args[3]));
+		}
+		if (args.length > 4) {
+			generator.setQuizzes(Integer.parseInt(args[4]));
+		}
+		if (args.length > 5) {
+			generator.setPictureBytes(Integer.parseInt(args[5]));
+		}
+		generator.write(Paths.get(args[0]));
+	}
+}
@@ -1,7 +1,22 @@
 /**
- * This class loads an array of Quiz objects and a Map of Question objects
- * given the path of a file in DBF format.
- * The file GTEST.DBF is looked for in the path.
+ * This class loads an array of Quiz objects and the QuestionData of their
+ * questions given the path of a file in DBF format.
+ * The file GTEST.DBF is looked for in the path, which can also be a ZIP
+ * archive holding the files.
+ * Only the index of the quizzes and the number of questions of each quiz are
+ * read when the data is opened. The tables of a quiz are loaded the first
+ * time one of its questions is needed, and the quiz following it is then
+ * loaded in the background, as it is likely to be opened next.
+ * A quiz that can't be loaded is reported, without stopping the others.
+ * The questions of the quizzes loaded are kept within a budget of bytes, given
+ * by the system property cuxna.quizCacheBytes: beyond it the quizzes used
+ * least recently are dropped, unless they are pinned because the user
+ * answered some of their questions, and loaded again when needed.
+ * After a bank is first opened, its quizzes are read again in the background
+ * to write a Snapshot of them, which is read instead of the tables the next
+ * time the bank is opened, as long as none of its files changed.
+ * Questions are identified by an id, their position among the questions of
+ * all the quizzes, so that they can be kept in arrays.
  * 
  * @author Andrea Chiavazza
  * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
@@ -9,66 +24,539 @@
 package cuxna.data;
 
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.NavigableMap;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.prefs.Preferences;
 
 import cuxna.dbf.DBF;
+import cuxna.dbf.LoadOptions;
+import cuxna.dbf.MappedDBF;
+import cuxna.dbf.Memo;
+import cuxna.dbf.Storage;
 import cuxna.gui.GUI;
 
 
-public class Data {
+public class Data implements Closeable {
 	final String PATH = "path";
 	// The name of file to be looked for in the given path.
 	private static final String indexName = "GTEST";
+	// seconds a loading thread is kept without quizzes to load
+	private static final int KEEP_ALIVE = 10;
 
+	private Storage storage;
 	private Quiz[] quizes;
-	private NavigableMap<Question, QuestionData> questions = new TreeMap<Question, QuestionData>();
+	private String[] tables;
+	// the id of the first question of each quiz, followed by the number of
+	// questions
+	private int[] firstIds;
+	// the loading of each quiz, created when it is first needed
+	private List<FutureTask<QuestionData[]>> loads = new ArrayList<FutureTask<QuestionData[]>>();
+	// the quizzes submitted to the executor
+	private BitSet warming = new BitSet();
+	private ThreadPoolExecutor executor;
+	// set once the bank is closed, when the loads still running fail
+	private volatile boolean closed;
+	private Map<Integer, Throwable> loadErrors = new TreeMap<Integer, Throwable>();
+	private Residency residency = new Residency(
+			Long.getLong("cuxna.quizCacheBytes", 64L << 20));
+	// null unless the bank was opened from its snapshot, or once a quiz of the
+	// snapshot turned out to be damaged
+	private volatile Snapshot snapshot;
+	private Path snapshotFile;
+	private String bankPath;
 
 	public Quiz[] getQuizes() {
 		return quizes;
 	}
 
-	public NavigableMap<Question, QuestionData> getQuestions() {
-		return questions;
+	/**
+	 * @return the number of questions of all the quizzes
+	 */
+	public int getQuestionCount() {
+		return firstIds[quizes.length];
+	}
+
+	/**
+	 * @param question
+	 * @return the id of the question, from 0 to getQuestionCount() - 1
+	 */
+	public int getQuestionId(Question question) {
+		return firstIds[question.getQuizNo()] + question.getQuestionNo();
+	}
+
+	/**
+	 * @param questionId
+	 * @return the quiz the question belongs to
+	 */
+	public int getQuizNo(int questionId) {
+		if (questionId < 0 || questionId >= getQuestionCount()) {
+			throw new IndexOutOfBoundsException("Question " + questionId);
+		}
+		int quizNo = Arrays.binarySearch(firstIds, questionId);
+		if (quizNo < 0) {
+			// the last quiz starting before the question
+			return -quizNo - 2;
+		}
+		// quizzes without questions start at the same id as the one after them
+		while (firstIds[quizNo + 1] == questionId) {
+			quizNo++;
+		}
+		return quizNo;
+	}
+
+	/**
+	 * @param questionId
+	 * @return the number of the question within its quiz
+	 */
+	public int getQuestionNo(int questionId) {
+		return questionId - firstIds[getQuizNo(questionId)];
+	}
+
+	/**
+	 * Gives the data of a question, loading its quiz if it wasn't yet, then
+	 * starts loading the following quiz in the background.
+	 * 
+	 * @param questionId
+	 * @return the data of the question
+	 * @throws UncheckedIOException
+	 *             if the quiz can't be loaded
+	 */
+	public QuestionData getQuestionData(int questionId) {
+		int quizNo = getQuizNo(questionId);
+		residency.used(quizNo);
+		QuestionData[] quiz = quiz(quizNo);
+		warmUp(quizNo + 1);
+		return quiz[questionId - firstIds[quizNo]];
 	}
 
 	/**
-	 * Reads a DBF file and stores the data in an array of Quiz objects and a Map of Question objects
+	 * @param question
+	 * @return the data of the question
+	 * @throws UncheckedIOException
+	 *             if the quiz can't be loaded
+	 */
+	public QuestionData getQuestionData(Question question) {
+		return getQuestionData(getQuestionId(question));
+	}
+
+	/**
+	 * Keeps a quiz loaded whatever the budget, as the user answered some of
+	 * its questions.
+	 * 
+	 * @param quizNo
+	 */
+	public void pin(int quizNo) {
+		residency.pin(quizNo);
+	}
+
+	/**
+	 * Lets every quiz be dropped, once the answers of the user are cleared.
+	 */
+	public void unpinAll() {
+		residency.unpinAll();
+	}
+
+	/**
+	 * Changes the budget of the questions loaded, dropping quizzes if it is
+	 * now exceeded.
+	 * 
+	 * @param newMaxBytes
+	 *            the approximate number of bytes the questions can take
+	 */
+	public void setMaxBytes(long newMaxBytes) {
+		evict(residency.setMaxBytes(newMaxBytes));
+	}
+
+	/**
+	 * @return the approximate number of bytes taken by the questions loaded
+	 */
+	public long getBytes() {
+		return residency.getBytes();
+	}
+
+	/**
+	 * Loads every quiz that isn't loaded yet, at the same time. Quizzes that
+	 * can't be loaded are found in getLoadErrors.
+	 * 
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted while waiting
+	 */
+	public void loadAll() throws InterruptedIOException {
+		for (int i = 0; i < quizes.length; i++) {
+			warmUp(i);
+		}
+		for (int i = 0; i < quizes.length; i++) {
+			try {
+				quiz(i);
+			} catch (UncheckedIOException e) {
+				if (e.getCause() instanceof InterruptedIOException) {
+					throw (InterruptedIOException) e.getCause();
+				}
+				// the other quizzes are still loaded
+			}
+		}
+	}
+
+	/**
+	 * Stops loading quizzes and releases the files of the bank, like the ZIP
+	 * archive holding them. Memos can't be read afterwards.
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		storage.close();
+	}
+
+	/**
+	 * @return why quizzes could not be loaded, by quiz number
+	 */
+	public synchronized Map<Integer, Throwable> getLoadErrors() {
+		return new TreeMap<Integer, Throwable>(loadErrors);
+	}
+
+	/**
+	 * Reads the index of the quizzes and counts the questions of each quiz,
+	 * from the snapshot of the bank if it can be used.
 	 * 
 	 * @param path
 	 *            the path where to look for the database file
 	 */
 	private void load(String path) throws IOException {
-		String dbPath = path + File.separatorChar;
-		DBF indexDBF = new DBF(dbPath + indexName);
+		storage = storage(new File(path));
+		bankPath = path;
+		snapshotFile = Snapshot.file(path);
+		snapshot = Snapshot.open(snapshotFile, path, storage);
+		if (snapshot != null) {
+			quizes = snapshot.getQuizes();
+			tables = snapshot.getTables();
+			for (int i = 0; i < quizes.length; i++) {
+				loads.add(null);
+			}
+		} else {
+			readIndex();
+		}
+		firstIds = new int[quizes.length + 1];
+		for (int i = 0; i < quizes.length; i++) {
+			firstIds[i + 1] = firstIds[i] + quizes[i].getQuestionCount();
+		}
+		executor = new ThreadPoolExecutor(
+				Runtime.getRuntime().availableProcessors(),
+				Runtime.getRuntime().availableProcessors(),
+				KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Quiz loader");
+						// never keeps the application running
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		// the first quiz is likely to be the first one opened
+		warmUp(0);
+		if (snapshot == null && loadErrors.isEmpty()) {
+			writeSnapshot(snapshotFile, path);
+		}
+	}
+
+	/**
+	 * Reads the index of the quizzes from the GTEST table and counts the
+	 * questions of each quiz.
+	 */
+	private void readIndex() throws IOException {
+		DBF indexDBF = new DBF(storage, indexName,
+				fields("PATH", "TABLENAME", "PRODID", "TITLE"));
 		// load Quiz structures
-		quizes = new Quiz[indexDBF.getNumRecords()];
+		// deleted records are skipped, the others are numbered in order
+		quizes = new Quiz[indexDBF.getNumLiveRecords()];
+		tables = new String[quizes.length];
+		PrimitiveIterator.OfInt quizRows = indexDBF.liveRows();
 		for (int i = 0; i < quizes.length; i++) {
-			String fileBase = dbPath
-			+ indexDBF.readString(i, "PATH").replace('\\',
-					File.separatorChar)
-					+ indexDBF.readString(i, "TABLENAME");
-			int numQuestions = readQuestions(fileBase, i);
-			quizes[i] = new Quiz(indexDBF.readString(i, "PRODID"), indexDBF.readString(i, "TITLE"),
-					numQuestions);
-			// applies erratas
-			if (quizes[i].getProdId().equals("075708f")) {
-				boolean[] a = questions.get(new Question(i, 72)).getCorrectAnswer();
-				System.arraycopy(
-						new boolean[] {false, false, true, true, false, true},
-						0, a, 0, a.length);
+			int row = quizRows.nextInt();
+			tables[i] = indexDBF.readString(row, "PATH").replace('\\', '/')
+					+ indexDBF.readString(row, "TABLENAME");
+			int numQuestions = 0;
+			try {
+				numQuestions = DBF.countLiveRecords(storage, tables[i]);
+			} catch (IOException e) {
+				// the quiz is left without questions
+				failed(i, e);
+			}
+			quizes[i] = new Quiz(indexDBF.readString(row, "PRODID"),
+					indexDBF.readString(row, "TITLE"), numQuestions);
+			loads.add(null);
+		}
+	}
+
+	/**
+	 * Writes the snapshot of the bank on a thread of its own, reading every
+	 * quiz again. No snapshot is written if a quiz can't be read.
+	 */
+	private void writeSnapshot(final Path file, final String path) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					List<String> sources = new ArrayList<String>();
+					sources.add(storage.find(indexName, "dbf"));
+					for (String table : tables) {
+						sources.add(storage.find(table, "dbf"));
+						try {
+							sources.add(storage.find(table, "fpt"));
+						} catch (FileNotFoundException e) {
+							// a table without memos
+						}
+						sources.add(storage.find(table + "X", "dbf"));
+					}
+					Snapshot.write(file, path, storage, sources, quizes, tables,
+							new Snapshot.QuizReader() {
+								@Override
+								public QuestionData[] read(int quizNo) throws IOException {
+									QuestionData[] quiz = readQuestions(storage,
+											tables[quizNo], quizNo);
+									applyErrata(quizes[quizNo], quiz);
+									return quiz;
+								}
+							});
+				} catch (IOException e) {
+					if (!closed) {
+						e.printStackTrace();
+					}
+				} catch (RuntimeException e) {
+					if (!closed) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "Snapshot writer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * @return the loading of a quiz, which is run by the first thread needing
+	 *         it
+	 */
+	private synchronized FutureTask<QuestionData[]> load(final int quizNo) {
+		FutureTask<QuestionData[]> load = loads.get(quizNo);
+		if (load == null) {
+			load = new FutureTask<QuestionData[]>(new Callable<QuestionData[]>() {
+				@Override
+				public QuestionData[] call() throws IOException {
+					try {
+						QuestionData[] quiz = null;
+						Snapshot from = snapshot;
+						if (from != null) {
+							try {
+								// the erratas are already applied
+								quiz = from.readQuiz(quizNo, storage);
+							} catch (IOException e) {
+								dropSnapshot(from, e);
+							} catch (RuntimeException e) {
+								dropSnapshot(from, e);
+							}
+						}
+						if (quiz == null) {
+							quiz = readQuestions(storage, tables[quizNo], quizNo);
+							applyErrata(quizes[quizNo], quiz);
+						}
+						long bytes = 0;
+						for (QuestionData question : quiz) {
+							bytes += question.estimateBytes();
+						}
+						evict(residency.loaded(quizNo, bytes));
+						return quiz;
+					} catch (IOException e) {
+						failed(quizNo, e);
+						throw e;
+					} catch (RuntimeException e) {
+						failed(quizNo, e);
+						throw e;
+					}
+				}
+			});
+			loads.set(quizNo, load);
+		}
+		return load;
+	}
+
+	/**
+	 * Stops reading quizzes from a damaged snapshot, which is deleted and
+	 * written again from the tables. The quizzes already read from it are
+	 * kept.
+	 */
+	private synchronized void dropSnapshot(Snapshot damaged, Exception e) {
+		if (snapshot != damaged) {
+			// already dropped by another quiz
+			return;
+		}
+		snapshot = null;
+		if (closed) {
+			// the storage may fail to be read once it is closed
+			return;
+		}
+		e.printStackTrace();
+		try {
+			Files.deleteIfExists(snapshotFile);
+		} catch (IOException deleteFailed) {
+			// replaced when written again
+		}
+		writeSnapshot(snapshotFile, bankPath);
+	}
+
+	/**
+	 * Starts loading a quiz in the background, if it isn't being loaded yet.
+	 */
+	private synchronized void warmUp(int quizNo) {
+		if (quizNo < quizes.length && !warming.get(quizNo)) {
+			warming.set(quizNo);
+			executor.execute(load(quizNo));
+		}
+	}
+
+	/**
+	 * Drops quizzes, which are loaded again from their tables when needed.
+	 */
+	private synchronized void evict(List<Integer> quizNos) {
+		for (int quizNo : quizNos) {
+			FutureTask<QuestionData[]> load = loads.get(quizNo);
+			loads.set(quizNo, null);
+			warming.clear(quizNo);
+			if (load != null && load.isDone()) {
+				try {
+					closeMemos(load.get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					// a quiz that failed holds no file
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases the memo file of a quiz dropped. It is opened again if one of
+	 * the memos of the quiz is still read.
+	 */
+	private static void closeMemos(QuestionData[] quiz) {
+		for (QuestionData question : quiz) {
+			// the memos of a quiz are all in the file of its question table
+			for (CharSequence s : new CharSequence[] { question.getTextSource(),
+					question.getHintSource(), question.getSolutionSource(),
+					question.getPictureMemo() }) {
+				if (s instanceof Memo) {
+					try {
+						((Memo) s).getFile().close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					return;
+				}
 			}
-			if (quizes[i].getProdId().equals("075708b")) {
-				String[] answers = questions.get(new Question(i, 67)).getAnswers();
-				answers[6] = answers[6].replaceAll("cp\\.jar", "mp.jar");
-				answers[7] = answers[7].replaceAll("cp\\.jar", "mp.jar");
+		}
+	}
+
+	/**
+	 * Loads a quiz on the calling thread, or waits for the thread loading it.
+	 * 
+	 * @return the questions of the quiz
+	 * @throws UncheckedIOException
+	 *             if the quiz can't be loaded
+	 */
+	private QuestionData[] quiz(int quizNo) {
+		FutureTask<QuestionData[]> load = load(quizNo);
+		// does nothing if another thread has started it
+		load.run();
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new InterruptedIOException());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw new UncheckedIOException((IOException) e.getCause());
 			}
+			throw new UncheckedIOException(new IOException(e.getCause()));
+		}
+	}
+
+	private synchronized void failed(int quizNo, Throwable e) {
+		loadErrors.put(quizNo, e);
+		if (!closed) {
+			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Fixes the mistakes of some quizzes, unless the quiz has fewer questions
+	 * than expected.
+	 */
+	private static void applyErrata(Quiz quiz, QuestionData[] questions) {
+		if (quiz.getProdId().equals("075708f") && questions.length > 72) {
+			boolean[] a = questions[72].getCorrectAnswer();
+			System.arraycopy(
+					new boolean[] {false, false, true, true, false, true},
+					0, a, 0, a.length);
+		}
+		if (quiz.getProdId().equals("075708b") && questions.length > 67) {
+			String[] answers = questions[67].getAnswers();
+			answers[6] = answers[6].replaceAll("cp\\.jar", "mp.jar");
+			answers[7] = answers[7].replaceAll("cp\\.jar", "mp.jar");
+		}
+	}
+
+	/**
+	 * @param file
+	 *            a directory or a ZIP archive
+	 * @return the storage holding the files of the database
+	 * @throws IOException
+	 */
+	private static Storage storage(File file) throws IOException {
+		if (file.isFile()) {
+			// read without being extracted
+			return Storage.zip(file.toPath());
+		}
+		return Storage.of(file.toPath());
+	}
+
+	/**
+	 * @param names
+	 *            the names of the fields used
+	 * @return the options loading only the given fields of a DBF file
+	 */
+	private static LoadOptions fields(String... names) {
+		LoadOptions options = new LoadOptions();
+		options.setFields(names);
+		return options;
+	}
+
 	/**
 	 * Converts an answer stored as a bitmap int to an array of boolean
 	 * 
@@ -108,59 +596,161 @@ public class Data {
 	/**
 	 * Reads questions from the given DBF file and its associated answers from a
 	 * DBF file with the same name with an 'X' appended to it.
+	 * The answers of each question are found through the offsets summed from
+	 * the NUMANSWER field of the question records before it, deleted ones
+	 * included, so that any question can be decoded on its own.
+	 * Called by the threads loading the quizzes.
 	 * 
+	 * @param storage
+	 *            where the files are
 	 * @param fileBase
 	 *            name of file without extension
 	 * @param quizNo
-	 * @return an array of Question objects
+	 * @return the questions of the quiz in order
+	 * @throws IOException
+	 *             also if the answers don't match the NUMANSWER fields
+	 */
+	private static QuestionData[] readQuestions(Storage storage, String fileBase, int quizNo)
+			throws IOException {
+		QuizLoadEvent event = new QuizLoadEvent();
+		event.begin();
+		event.table = fileBase;
+		event.quiz = quizNo;
+		QuestionData[] result = null;
+		try {
+			DBF questionsDBF = new DBF(storage, fileBase, fields("QUESTION", "ANSWER", "TYPE",
+					"NUMANSWER", "HINT", "REF", "PICTURE"));
+			DBF answersDBF = new DBF(storage, fileBase + "X", fields("ANSWER"));
+			int[] answerOffsets = answerOffsets(storage, fileBase, questionsDBF);
+			int numAnswers = answerOffsets[questionsDBF.getNumRecords()];
+			if (numAnswers > answersDBF.getNumRecords()) {
+				throw new IOException(fileBase + "X holds " + answersDBF.getNumRecords()
+						+ " answers, NUMANSWER gives " + numAnswers);
+			}
+			event.answers = numAnswers;
+			// deleted questions are skipped, the others are numbered in order
+			QuestionData[] quiz = new QuestionData[questionsDBF.getNumLiveRecords()];
+			PrimitiveIterator.OfInt questionRows = questionsDBF.liveRows();
+			for (int q = 0; q < quiz.length; q++) {
+				int row = questionRows.nextInt();
+				quiz[q] = readQuestion(questionsDBF, row, answersDBF,
+						answerOffsets[row], answerOffsets[row + 1]);
+			}
+			result = quiz;
+			return result;
+		} finally {
+			event.failed = result == null;
+			event.questions = result == null ? 0 : result.length;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Sums the NUMANSWER field of every question record. The answers of a
+	 * deleted question are still in the answers table, so its NUMANSWER is read
+	 * from the mapped file, as DBF doesn't decode deleted records.
+	 * 
+	 * @return the record of the first answer of each question record, followed
+	 *         by the number of answers
+	 * @throws IOException
+	 *             if a question has a negative number of answers
 	 */
-	private int readQuestions(String fileBase, int quizNo) {
-		int numQuestions = 0;
+	private static int[] answerOffsets(Storage storage, String fileBase, DBF questionsDBF)
+			throws IOException {
+		int[] offsets = new int[questionsDBF.getNumRecords() + 1];
+		MappedDBF deletedDBF = null;
 		try {
-			DBF questionsDBF = new DBF(fileBase);
-			DBF answersDBF = new DBF(fileBase + "X");
-			numQuestions = questionsDBF.getNumRecords();
-			int i = 0;
-			for (int q = 0; q < numQuestions; q++) {
-				// read answers. - relies on NUMANSWER field being correct
-				String[] answers = new String[questionsDBF.readInt(q, "NUMANSWER")];
-				for (int l = 0; l < answers.length; l++) {
-					// Workaround: fix the format of the answer text
-					// 2 or more spaces are converted to a newline
-					answers[l] = answersDBF.readString(i, "ANSWER").replaceAll(" {2,}", "\n");
-					i++;
+			for (int row = 0; row < questionsDBF.getNumRecords(); row++) {
+				int numAnswers;
+				if (questionsDBF.isDeleted(row)) {
+					if (deletedDBF == null) {
+						deletedDBF = new MappedDBF(storage, fileBase);
+					}
+					numAnswers = deletedDBF.readInt(row, "NUMANSWER");
+				} else {
+					numAnswers = questionsDBF.readInt(row, "NUMANSWER");
 				}
-				boolean[] correctAnswer;
-				int answerValue = Integer.parseInt(questionsDBF.readString(q, "ANSWER").trim());
-				/* The user is not hinted as to whether the question can have more than one correct
-				 * answer by using radio or check-box buttons.
-				 * This makes the test a bit tougher but the book mentions it as a good idea
-				 * at the top of page xxx (30 in roman's)
-				 * */
-				switch(questionsDBF.readInt(q, "TYPE")) {
-				// only one answer is correct
-				case 1:
-					correctAnswer = iToAnswer(answerValue, answers.length);
-					break;
-				// more than one answer can be correct
-				case 5:
-				default:
-					correctAnswer = bitmapToAnswer(answerValue, answers.length);
+				if (numAnswers < 0) {
+					throw new IOException("Question record " + row + " has " + numAnswers
+							+ " answers");
 				}
-				questions.put(new Question(quizNo, q),
-						new QuestionData(
-								questionsDBF.readString(q, "QUESTION"),
-								correctAnswer,
-								answers,
-								questionsDBF.readString(q, "HINT"),
-								questionsDBF.readString(q, "REF")
-						)
-				);
+				offsets[row + 1] = offsets[row] + numAnswers;
+			}
+			return offsets;
+		} catch (NumberFormatException e) {
+			throw new IOException("NUMANSWER of a deleted question is not a number", e);
+		} finally {
+			if (deletedDBF != null) {
+				deletedDBF.close();
+			}
+		}
+	}
+
+	/**
+	 * Decodes a question and its answers.
+	 * 
+	 * @param row
+	 *            the record of the question
+	 * @param from
+	 *            the record of the first answer
+	 * @param to
+	 *            the record after the last answer
+	 * @throws IOException
+	 *             if an answer is deleted
+	 */
+	private static QuestionData readQuestion(DBF questionsDBF, int row, DBF answersDBF,
+			int from, int to) throws IOException {
+		String[] answers = new String[to - from];
+		for (int l = 0; l < answers.length; l++) {
+			if (answersDBF.isDeleted(from + l)) {
+				throw new IOException("Answer record " + (from + l) + " of question record "
+						+ row + " is deleted");
+			}
+			// Workaround: fix the format of the answer text
+			// 2 or more spaces are converted to a newline
+			answers[l] = answersDBF.readString(from + l, "ANSWER")
+					.replaceAll(" {2,}", "\n");
+		}
+		boolean[] correctAnswer;
+		int answerValue = questionsDBF.readInt(row, "ANSWER");
+		/* The user is not hinted as to whether the question can have more than one correct
+		 * answer by using radio or check-box buttons.
+		 * This makes the test a bit tougher but the book mentions it as a good idea
+		 * at the top of page xxx (30 in roman's)
+		 * */
+		switch(questionsDBF.readInt(row, "TYPE")) {
+		// only one answer is correct
+		case 1:
+			correctAnswer = iToAnswer(answerValue, answers.length);
+			break;
+		// more than one answer can be correct
+		case 5:
+		default:
+			correctAnswer = bitmapToAnswer(answerValue, answers.length);
+		}
+		return new QuestionData(
+				questionsDBF.readMemo(row, "QUESTION"),
+				correctAnswer,
+				answers,
+				questionsDBF.readMemo(row, "HINT"),
+				questionsDBF.readMemo(row, "REF"),
+				// only some databases have pictures
+				questionsDBF.hasField("PICTURE") ?
+						questionsDBF.readMemo(row, "PICTURE") : null
+		);
+	}
+
+	/**
+	 * Closes the files of a bank that couldn't be loaded.
+	 */
+	private void closeQuietly() {
+		if (storage != null) {
+			try {
+				close();
+			} catch (IOException e) {
+				// the load failure is reported instead
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-		return numQuestions;
 	}
 
 	/**
@@ -181,6 +771,7 @@ public class Data {
 		try {
 			load(path);
 		} catch (IOException e) {
+			closeQuietly();
 			// the path is wrong: remove it from the preferences
 			prefs.remove(PATH);
 			throw new IOException();
@@ -197,7 +788,12 @@ public class Data {
 	 */
 	public Data(File filePath) throws IOException {
 		// try to load the data
-		load(filePath.getPath());
+		try {
+			load(filePath.getPath());
+		} catch (IOException e) {
+			closeQuietly();
+			throw e;
+		}
 		// save path to preferences
 		Preferences.userNodeForPackage(GUI.class).put(PATH, filePath.getPath());
 	}	
@@ -29,7 +29,7 @@ public class Question implements Comparable<Question> {
 
 	@Override
 	public int hashCode() {
-		return quizNo << 16 + (questionNo | 0x0000ffff);
+		return (quizNo << 16) + questionNo;
 	}
 
 	@Override
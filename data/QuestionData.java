@@ -6,13 +6,26 @@
  */
 package cuxna.data;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import cuxna.dbf.Memo;
+
 public class QuestionData {
-	private String text, hint, solution;
+	// approximate size of the header of an object, of an array or a String
+	private static final int OBJECT_BYTES = 16;
+	private static final int STRING_BYTES = 40;
+	// the fields of a memo handle
+	private static final int MEMO_BYTES = 24;
+	// either a String or a memo handle read when the text is needed
+	private CharSequence text, hint, solution;
+	// read only when the question is shown
+	private Memo picture;
 	private boolean[] correctAnswer;
 	private String[] choices;
 
-	public QuestionData(String newText, boolean[] newCorrectAnswer, String[] answers,
-			String newHint, String newSolution) {
+	public QuestionData(CharSequence newText, boolean[] newCorrectAnswer, String[] answers,
+			CharSequence newHint, CharSequence newSolution) {
 		text = newText;
 		hint = newHint;
 		solution = newSolution;
@@ -20,16 +33,36 @@ public class QuestionData {
 		choices = answers;
 	}
 
+	public QuestionData(CharSequence newText, boolean[] newCorrectAnswer, String[] answers,
+			CharSequence newHint, CharSequence newSolution, Memo newPicture) {
+		this(newText, newCorrectAnswer, answers, newHint, newSolution);
+		picture = newPicture;
+	}
+
 	public String getText() {
-		return text;
+		return toString(text);
 	}
 
 	public String getHint() {
-		return hint;
+		return toString(hint);
 	}
 
 	public String getSolution() {
-		return solution;
+		return toString(solution);
+	}
+
+	public boolean hasPicture() {
+		return picture != null;
+	}
+
+	/**
+	 * Reads the picture of the question, encoded as found in the database.
+	 * 
+	 * @return the bytes of the picture or null if the question has none
+	 * @throws IOException
+	 */
+	public ByteBuffer getPicture() throws IOException {
+		return picture == null ? null : picture.getBytes();
 	}
 
 	public String[] getAnswers() {
@@ -39,4 +72,53 @@ public class QuestionData {
 	public boolean[] getCorrectAnswer() {
 		return correctAnswer;
 	}
+
+	/**
+	 * @return the text as held: a String, a Memo or null
+	 */
+	CharSequence getTextSource() {
+		return text;
+	}
+
+	CharSequence getHintSource() {
+		return hint;
+	}
+
+	CharSequence getSolutionSource() {
+		return solution;
+	}
+
+	Memo getPictureMemo() {
+		return picture;
+	}
+
+	/**
+	 * @return the approximate number of bytes of the heap taken by the
+	 *         question, not counting the text of memos held by the MemoCache
+	 */
+	long estimateBytes() {
+		long bytes = OBJECT_BYTES + 6 * 4
+				+ OBJECT_BYTES + correctAnswer.length
+				+ OBJECT_BYTES + 4L * choices.length;
+		for (String choice : choices) {
+			bytes += estimateBytes(choice);
+		}
+		return bytes + estimateBytes(text) + estimateBytes(hint)
+				+ estimateBytes(solution) + estimateBytes(picture);
+	}
+
+	private static long estimateBytes(CharSequence s) {
+		if (s == null) {
+			return 0;
+		}
+		if (s instanceof Memo) {
+			return MEMO_BYTES;
+		}
+		// Latin-1 text takes a byte per character
+		return STRING_BYTES + s.length();
+	}
+
+	private static String toString(CharSequence s) {
+		return s == null ? null : s.toString();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+/**
+ * QuizLoadEvent is recorded by the JDK Flight Recorder when the questions and
+ * answers of a quiz are loaded.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.data;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cuxna.QuizLoad")
+@Label("Quiz Load")
+@Category({ "Cuxna", "Data" })
+class QuizLoadEvent extends jdk.jfr.Event {
+	@Label("Table")
+	String table;
+
+	@Label("Quiz")
+	int quiz;
+
+	@Label("Questions")
+	int questions;
+
+	@Label("Answers")
+	int answers;
+
+	@Label("Failed")
+	boolean failed;
+}
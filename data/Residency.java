@@ -0,0 +1,95 @@
+/**
+ * Residency decides which quizzes stay loaded, keeping the approximate number
+ * of bytes taken by their questions within a budget.
+ * When a quiz is loaded beyond the budget, the least recently used quizzes are
+ * evicted, to be loaded again from their tables when they are needed.
+ * Quizzes with questions answered by the user are pinned and never evicted,
+ * nor is the quiz used last, so the budget can be exceeded by them.
+ * 
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class Residency {
+	private long maxBytes;
+	private long bytes;
+	// the bytes of each loaded quiz, the least recently used first
+	private LinkedHashMap<Integer, Long> quizzes = new LinkedHashMap<Integer, Long>(16, 0.75f, true);
+	private BitSet pinned = new BitSet();
+	private int current = -1;
+
+	Residency(long newMaxBytes) {
+		maxBytes = newMaxBytes;
+	}
+
+	/**
+	 * Records the loading of a quiz.
+	 * 
+	 * @param quizNo
+	 * @param quizBytes
+	 *            the approximate bytes taken by its questions
+	 * @return the quizzes to be evicted
+	 */
+	synchronized List<Integer> loaded(int quizNo, long quizBytes) {
+		Long old = quizzes.put(quizNo, quizBytes);
+		if (old != null) {
+			bytes -= old;
+		}
+		bytes += quizBytes;
+		return evict(quizNo);
+	}
+
+	/**
+	 * Records the use of a quiz, which becomes the last one to be evicted.
+	 */
+	synchronized void used(int quizNo) {
+		current = quizNo;
+		quizzes.get(quizNo);
+	}
+
+	synchronized void pin(int quizNo) {
+		pinned.set(quizNo);
+	}
+
+	synchronized void unpinAll() {
+		pinned.clear();
+	}
+
+	/**
+	 * Changes the budget.
+	 * 
+	 * @return the quizzes to be evicted
+	 */
+	synchronized List<Integer> setMaxBytes(long newMaxBytes) {
+		maxBytes = newMaxBytes;
+		return evict(-1);
+	}
+
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	private List<Integer> evict(int loaded) {
+		List<Integer> evicted = new ArrayList<Integer>();
+		Iterator<Map.Entry<Integer, Long>> i = quizzes.entrySet().iterator();
+		while (bytes > maxBytes && i.hasNext()) {
+			Map.Entry<Integer, Long> quiz = i.next();
+			int quizNo = quiz.getKey();
+			if (quizNo == loaded || quizNo == current || pinned.get(quizNo)) {
+				continue;
+			}
+			bytes -= quiz.getValue();
+			i.remove();
+			evicted.add(quizNo);
+		}
+		return evicted;
+	}
+}
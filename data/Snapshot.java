@@ -0,0 +1,410 @@
+/**
+ * Snapshot is a binary copy of the quizzes and questions of a bank, as Data
+ * loads them from the DBF files, with the answers fixed and the erratas
+ * applied. Memos are kept as their block numbers and read from the .fpt files
+ * when needed, as when they are loaded from the tables.
+ * The snapshot of a bank is written into the directory given by the system
+ * property cuxna.snapshotDir, by default .cuxna in the home directory, and
+ * mapped in memory when the bank is opened again. It records the size and
+ * last modified time of every file it was made from, and is not used if any
+ * of them changed. A checksum of its header is checked when it is opened, and
+ * a checksum of the questions of a quiz when they are read.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import cuxna.dbf.Memo;
+import cuxna.dbf.MemoFile;
+import cuxna.dbf.Storage;
+
+final class Snapshot {
+	// "CXSN"
+	private static final int MAGIC = 0x4358534e;
+	private static final int VERSION = 2;
+	// magic, version, checksum, length and position of the header, which
+	// follows the questions
+	private static final int PREFIX_SIZE = 20;
+	// how a text is held
+	private static final int NONE = 0;
+	private static final int MEMO = 1;
+	private static final int STRING = 2;
+
+	private ByteBuffer buffer;
+	private Quiz[] quizes;
+	private String[] tables;
+	private String[] memoFiles;
+	private String[] charsets;
+	private int[] blockSizes;
+	private int[] offsets;
+	private int[] lengths;
+	private int[] checksums;
+
+	private Snapshot(ByteBuffer newBuffer) {
+		buffer = newBuffer;
+	}
+
+	/**
+	 * @param bankPath
+	 *            the path of a bank, as given to Data
+	 * @return the file holding the snapshot of the bank
+	 */
+	static Path file(String bankPath) {
+		String dir = System.getProperty("cuxna.snapshotDir",
+				System.getProperty("user.home") + File.separator + ".cuxna");
+		CRC32 crc = new CRC32();
+		crc.update(new File(bankPath).getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+		return Paths.get(dir, Long.toHexString(crc.getValue()) + ".snap");
+	}
+
+	/**
+	 * Maps the snapshot of a bank, if there is one made from the files the
+	 * bank holds now.
+	 *
+	 * @param file
+	 *            the file of the snapshot
+	 * @param bankPath
+	 *            the path of the bank
+	 * @param storage
+	 *            the files of the bank
+	 * @return the snapshot or null if it can't be used
+	 */
+	static Snapshot open(Path file, String bankPath, Storage storage) {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			Snapshot snapshot;
+			try {
+				snapshot = new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						channel.size()));
+			} finally {
+				channel.close();
+			}
+			return snapshot.readHeader(bankPath, storage) ? snapshot : null;
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// a damaged snapshot is made again
+			return null;
+		}
+	}
+
+	private boolean readHeader(String bankPath, Storage storage) throws IOException {
+		if (buffer.capacity() < PREFIX_SIZE || buffer.getInt(0) != MAGIC
+				|| buffer.getInt(4) != VERSION) {
+			return false;
+		}
+		int headerLength = buffer.getInt(12);
+		int headerStart = buffer.getInt(16);
+		if (headerLength < 0 || headerStart < PREFIX_SIZE
+				|| (long) headerStart + headerLength > buffer.capacity()) {
+			return false;
+		}
+		ByteBuffer header = buffer.duplicate();
+		header.position(headerStart);
+		header.limit(headerStart + headerLength);
+		if (checksum(header) != buffer.getInt(8)) {
+			return false;
+		}
+		header.position(headerStart);
+		if (!bankPath.equals(readString(header))) {
+			return false;
+		}
+		for (int i = header.getInt(); i > 0; i--) {
+			String name = readString(header);
+			long size = header.getLong();
+			long modified = header.getLong();
+			if (!storage.exists(name) || storage.size(name) != size
+					|| storage.lastModified(name) != modified) {
+				return false;
+			}
+		}
+		int numQuizzes = header.getInt();
+		quizes = new Quiz[numQuizzes];
+		tables = new String[numQuizzes];
+		memoFiles = new String[numQuizzes];
+		charsets = new String[numQuizzes];
+		blockSizes = new int[numQuizzes];
+		offsets = new int[numQuizzes];
+		lengths = new int[numQuizzes];
+		checksums = new int[numQuizzes];
+		for (int i = 0; i < numQuizzes; i++) {
+			String prodId = readString(header);
+			String title = readString(header);
+			quizes[i] = new Quiz(prodId, title, header.getInt());
+			tables[i] = readString(header);
+			memoFiles[i] = readString(header);
+			charsets[i] = readString(header);
+			blockSizes[i] = header.getInt();
+			offsets[i] = header.getInt();
+			lengths[i] = header.getInt();
+			checksums[i] = header.getInt();
+		}
+		return true;
+	}
+
+	Quiz[] getQuizes() {
+		return quizes;
+	}
+
+	/**
+	 * @return the name of the question table of each quiz
+	 */
+	String[] getTables() {
+		return tables;
+	}
+
+	/**
+	 * Reads the questions of a quiz from the snapshot.
+	 *
+	 * @param quizNo
+	 * @param storage
+	 *            the files of the bank, holding the memos
+	 * @return the questions
+	 * @throws IOException
+	 *             if the questions are damaged
+	 */
+	QuestionData[] readQuiz(int quizNo, Storage storage) throws IOException {
+		ByteBuffer in = buffer.duplicate();
+		in.position(offsets[quizNo]);
+		in.limit(offsets[quizNo] + lengths[quizNo]);
+		if (checksum(in) != checksums[quizNo]) {
+			throw new IOException("The snapshot of quiz " + quizNo + " is damaged");
+		}
+		in.position(offsets[quizNo]);
+		MemoFile memos = memoFiles[quizNo] == null ? null : MemoFile.open(storage,
+				memoFiles[quizNo], charsets[quizNo], blockSizes[quizNo]);
+		QuestionData[] quiz = new QuestionData[quizes[quizNo].getQuestionCount()];
+		for (int q = 0; q < quiz.length; q++) {
+			CharSequence text = readText(in, memos);
+			CharSequence hint = readText(in, memos);
+			CharSequence solution = readText(in, memos);
+			int picture = in.getInt();
+			boolean[] correctAnswer = new boolean[in.get() & 0xff];
+			String[] answers = new String[correctAnswer.length];
+			for (int a = 0; a < answers.length; a++) {
+				correctAnswer[a] = in.get() != 0;
+				answers[a] = readString(in);
+			}
+			quiz[q] = new QuestionData(text, correctAnswer, answers, hint, solution,
+					picture < 0 ? null : memos.getMemo(picture));
+		}
+		return quiz;
+	}
+
+	/**
+	 * Reads the questions of a quiz, for the snapshot being written.
+	 */
+	interface QuizReader {
+		QuestionData[] read(int quizNo) throws IOException;
+	}
+
+	/**
+	 * Writes the snapshot of a bank, replacing the previous one. The quizzes
+	 * are read one at a time and their questions written straight to the file,
+	 * so that only the questions of one quiz are held at once. The header,
+	 * which gives where each quiz is, is written after them.
+	 *
+	 * @param file
+	 *            the file of the snapshot
+	 * @param bankPath
+	 *            the path of the bank
+	 * @param storage
+	 *            the files of the bank
+	 * @param sources
+	 *            the names of the files the bank is loaded from
+	 * @param quizes
+	 * @param tables
+	 *            the name of the question table of each quiz
+	 * @param reader
+	 *            reads the questions of each quiz
+	 * @throws IOException
+	 *             also if the snapshot would be larger than 2GB, which can't
+	 *             be mapped
+	 */
+	static void write(Path file, String bankPath, Storage storage, List<String> sources,
+			Quiz[] quizes, String[] tables, QuizReader reader) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(header);
+		writeString(headerOut, bankPath);
+		// taken before reading, so that a file changed meanwhile is read again
+		headerOut.writeInt(sources.size());
+		for (String name : sources) {
+			writeString(headerOut, name);
+			headerOut.writeLong(storage.size(name));
+			headerOut.writeLong(storage.lastModified(name));
+		}
+		headerOut.writeInt(quizes.length);
+
+		Files.createDirectories(file.getParent());
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		boolean written = false;
+		try {
+			// the questions of each quiz, after the prefix
+			channel.position(PREFIX_SIZE);
+			CRC32 crc = new CRC32();
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel)), crc));
+			for (int i = 0; i < quizes.length; i++) {
+				int start = position(out);
+				crc.reset();
+				QuestionData[] questions = reader.read(i);
+				MemoFile memos = null;
+				for (QuestionData question : questions) {
+					memos = writeText(out, question.getTextSource(), memos);
+					memos = writeText(out, question.getHintSource(), memos);
+					memos = writeText(out, question.getSolutionSource(), memos);
+					Memo picture = question.getPictureMemo();
+					memos = check(picture, memos);
+					out.writeInt(picture == null ? -1 : picture.getBlockNumber());
+					String[] answers = question.getAnswers();
+					if (answers.length > 255) {
+						throw new IOException("Too many answers in quiz " + i);
+					}
+					out.writeByte(answers.length);
+					for (int a = 0; a < answers.length; a++) {
+						out.writeByte(question.getCorrectAnswer()[a] ? 1 : 0);
+						writeString(out, answers[a]);
+					}
+				}
+				writeString(headerOut, quizes[i].getProdId());
+				writeString(headerOut, quizes[i].getTitle());
+				headerOut.writeInt(questions.length);
+				writeString(headerOut, tables[i]);
+				writeString(headerOut, memos == null ? null : memos.getName());
+				writeString(headerOut, memos == null ? null : memos.getCharset());
+				headerOut.writeInt(memos == null ? 0 : memos.getBlockSize());
+				headerOut.writeInt(start);
+				headerOut.writeInt(position(out) - start);
+				headerOut.writeInt((int) crc.getValue());
+			}
+			headerOut.flush();
+			int headerStart = position(out);
+			if ((long) headerStart + header.size() > Integer.MAX_VALUE) {
+				throw new IOException("The snapshot is larger than 2GB");
+			}
+			header.writeTo(out);
+			out.flush();
+			ByteBuffer prefix = ByteBuffer.allocate(PREFIX_SIZE);
+			prefix.putInt(MAGIC);
+			prefix.putInt(VERSION);
+			prefix.putInt(checksum(ByteBuffer.wrap(header.toByteArray())));
+			prefix.putInt(header.size());
+			prefix.putInt(headerStart);
+			prefix.flip();
+			while (prefix.hasRemaining()) {
+				channel.write(prefix, prefix.position());
+			}
+			written = true;
+		} finally {
+			channel.close();
+			if (!written) {
+				Files.deleteIfExists(temp);
+			}
+		}
+		// a snapshot is never seen half written
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the position in the file of the next byte written
+	 * @throws IOException
+	 *             if it can't be held by the int offsets of the snapshot
+	 */
+	private static int position(DataOutputStream out) throws IOException {
+		// the count stops at Integer.MAX_VALUE
+		if (out.size() >= Integer.MAX_VALUE - PREFIX_SIZE) {
+			throw new IOException("The snapshot is larger than 2GB");
+		}
+		return PREFIX_SIZE + out.size();
+	}
+
+	private static MemoFile writeText(DataOutputStream out, CharSequence text, MemoFile memos)
+			throws IOException {
+		if (text == null) {
+			out.writeByte(NONE);
+		} else if (text instanceof Memo) {
+			out.writeByte(MEMO);
+			out.writeInt(((Memo) text).getBlockNumber());
+			return check((Memo) text, memos);
+		} else {
+			out.writeByte(STRING);
+			writeString(out, text.toString());
+		}
+		return memos;
+	}
+
+	/**
+	 * @return the memo file of a quiz, checking that all its memos are in it
+	 */
+	private static MemoFile check(Memo memo, MemoFile memos) throws IOException {
+		if (memo == null) {
+			return memos;
+		}
+		if (memos != null && !memos.getName().equals(memo.getFile().getName())) {
+			throw new IOException("The memos of a quiz are in more than one file");
+		}
+		return memos == null ? memo.getFile() : memos;
+	}
+
+	private static CharSequence readText(ByteBuffer in, MemoFile memos) {
+		switch (in.get()) {
+		case MEMO:
+			return memos.getMemo(in.getInt());
+		case STRING:
+			return readString(in);
+		default:
+			return null;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int checksum(ByteBuffer bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes.duplicate());
+		return (int) crc.getValue();
+	}
+}
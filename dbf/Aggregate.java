@@ -0,0 +1,52 @@
+/**
+ * The count, minimum, maximum and sum of the values of a numeric field over
+ * the records found by a Query.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+public class Aggregate {
+	private long count;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private double sum;
+
+	void add(double value) {
+		count++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+		sum += value;
+	}
+
+	/**
+	 * @return the number of values, blank fields not being counted
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the smallest value, infinity if there are none
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the largest value, negative infinity if there are none
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + " min=" + min + " max=" + max + " sum=" + sum;
+	}
+}
@@ -0,0 +1,313 @@
+/**
+ * AsyncLoader loads a DBF file with asynchronous reads, as requested by
+ * DBF.loadAsync.
+ * The header of the .dbf file and the header of the .fpt file are read at the
+ * same time, then the records are read in chunks, a few chunks being read at
+ * once. Each chunk is decoded by the thread completing its read, into builders
+ * of its own that are joined in row order once every chunk is decoded, as
+ * when a table is loaded in parallel.
+ * The memos are not read while loading, only their block numbers: they are
+ * read later with blocking reads, by the thread needing them.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+final class AsyncLoader {
+	// bytes of records read at once
+	private static final int CHUNK_SIZE = 256 * 1024;
+	// chunks being read at once
+	private static final int MAX_PENDING = 4;
+
+	private Storage storage;
+	private String baseName;
+	private LoadOptions options;
+	private AsynchronousFileChannel channel;
+	private CompletableFuture<DBF> result = new CompletableFuture<DBF>();
+	// the block size of the memo file, or why it can't be read
+	private CompletableFuture<Integer> blockSize = new CompletableFuture<Integer>();
+	private DBF dbf = new DBF();
+	private Header header;
+	private List<Column.Builder> builders;
+	private List<List<Column.Builder>> slices = new ArrayList<List<Column.Builder>>();
+	// the rows of a chunk, a multiple of 64 so that slices never share a word
+	private int chunkRows;
+	private int numChunks;
+	private int nextChunk;
+	private int doneChunks;
+	private TableOpenEvent event;
+	private long start;
+
+	/**
+	 * Fills a buffer with the bytes found at a position of a file, reading
+	 * again until it is full.
+	 */
+	private abstract class FullRead implements CompletionHandler<Integer, Void> {
+		private AsynchronousFileChannel file;
+		private ByteBuffer buffer;
+		private long position;
+
+		FullRead(AsynchronousFileChannel newFile, ByteBuffer newBuffer, long newPosition) {
+			file = newFile;
+			buffer = newBuffer;
+			position = newPosition;
+		}
+
+		void start() {
+			file.read(buffer, position, null, this);
+		}
+
+		@Override
+		public void completed(Integer read, Void attachment) {
+			if (read < 0) {
+				failed(new EOFException(), attachment);
+			} else if (buffer.hasRemaining()) {
+				file.read(buffer, position + buffer.position(), null, this);
+			} else {
+				buffer.flip();
+				try {
+					done(buffer);
+				} catch (IOException e) {
+					failed(e, attachment);
+				} catch (RuntimeException e) {
+					failed(e, attachment);
+				}
+			}
+		}
+
+		@Override
+		public void failed(Throwable e, Void attachment) {
+			fail(e);
+		}
+
+		/**
+		 * Called by the thread completing the last read.
+		 */
+		abstract void done(ByteBuffer full) throws IOException;
+	}
+
+	private AsyncLoader(Storage newStorage, String newBaseName, LoadOptions newOptions) {
+		storage = newStorage;
+		baseName = newBaseName;
+		options = newOptions;
+		event = new TableOpenEvent(baseName, "async");
+		event.begin();
+		start = System.nanoTime();
+	}
+
+	/**
+	 * @return the table, once it is loaded
+	 */
+	static CompletableFuture<DBF> load(final Storage storage, final String baseName,
+			final LoadOptions options) {
+		Path path;
+		try {
+			path = storage.localPath(storage.find(baseName, "dbf"));
+		} catch (IOException e) {
+			CompletableFuture<DBF> failed = new CompletableFuture<DBF>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		if (path == null) {
+			// only channels of the local file system can be asynchronous
+			return CompletableFuture.supplyAsync(new Supplier<DBF>() {
+				@Override
+				public DBF get() {
+					try {
+						return new DBF(storage, baseName, options);
+					} catch (IOException e) {
+						throw new CompletionException(e);
+					}
+				}
+			});
+		}
+		AsyncLoader loader = new AsyncLoader(storage, baseName, options);
+		try {
+			loader.start(path);
+		} catch (IOException e) {
+			loader.fail(e);
+		}
+		return loader.result;
+	}
+
+	private void start(Path path) throws IOException {
+		channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+		readBlockSize();
+		// the size of the header is found in its first bytes
+		new FullRead(channel, ByteBuffer.allocate(Header.BLOCK_SIZE), 0) {
+			@Override
+			void done(ByteBuffer prefix) {
+				int firstRecord = prefix.get(8) & 0xff | (prefix.get(9) & 0xff) << 8;
+				readHeader(Math.max(firstRecord, Header.BLOCK_SIZE));
+			}
+		}.start();
+	}
+
+	/**
+	 * Reads the header of the memo file, if there is one, while the header of
+	 * the table is read.
+	 */
+	private void readBlockSize() {
+		final String name;
+		final AsynchronousFileChannel fpt;
+		try {
+			name = storage.find(baseName, "fpt");
+			fpt = AsynchronousFileChannel.open(storage.localPath(name),
+					StandardOpenOption.READ);
+		} catch (IOException e) {
+			// only a failure if the table has memos
+			blockSize.completeExceptionally(e);
+			return;
+		}
+		new FullRead(fpt, ByteBuffer.allocate(8), 0) {
+			@Override
+			void done(ByteBuffer fptHeader) throws IOException {
+				fpt.close();
+				blockSize.complete(FPT.readBlockSize(fptHeader));
+			}
+
+			@Override
+			public void failed(Throwable e, Void attachment) {
+				close(fpt);
+				blockSize.completeExceptionally(e);
+			}
+		}.start();
+	}
+
+	private void readHeader(int size) {
+		new FullRead(channel, ByteBuffer.allocate(size), 0) {
+			@Override
+			void done(ByteBuffer buffer) throws IOException {
+				header = Header.read(buffer);
+				header.checkSize(channel.size());
+				event.header(header, start);
+				if (!DBF.hasMemo(header, options)) {
+					readRecords(null);
+					return;
+				}
+				blockSize.whenComplete(new BiConsumer<Integer, Throwable>() {
+					@Override
+					public void accept(Integer size, Throwable e) {
+						if (e != null) {
+							fail(e);
+							return;
+						}
+						try {
+							readRecords(new FPT(storage, storage.find(baseName, "fpt"),
+									header.getDecoder(), size));
+						} catch (IOException e2) {
+							fail(e2);
+						} catch (RuntimeException e2) {
+							fail(e2);
+						}
+					}
+				});
+			}
+		}.start();
+	}
+
+	private void readRecords(FPT fpt) {
+		builders = dbf.builders(header, fpt, options);
+		int recordSize = Math.max(header.getRecordSize(), 1);
+		chunkRows = Math.max(64, CHUNK_SIZE / recordSize & ~63);
+		numChunks = (header.getNumRecords() + chunkRows - 1) / chunkRows;
+		for (int c = 0; c < numChunks; c++) {
+			List<Column.Builder> slice = new ArrayList<Column.Builder>();
+			for (Column.Builder builder : builders) {
+				slice.add(builder.split());
+			}
+			slices.add(slice);
+		}
+		if (numChunks == 0) {
+			finish();
+			return;
+		}
+		for (int c = 0; c < Math.min(MAX_PENDING, numChunks); c++) {
+			readNextChunk();
+		}
+	}
+
+	private void readNextChunk() {
+		final int chunk;
+		synchronized (this) {
+			if (nextChunk == numChunks || result.isDone()) {
+				return;
+			}
+			chunk = nextChunk++;
+		}
+		final int first = chunk * chunkRows;
+		final int last = Math.min(first + chunkRows, header.getNumRecords());
+		ByteBuffer buffer = ByteBuffer.allocate((last - first) * header.getRecordSize());
+		new FullRead(channel, buffer, header.getRecordPosition(first)) {
+			@Override
+			void done(ByteBuffer records) {
+				DecodeEvent batch = new DecodeEvent();
+				batch.begin();
+				decode(slices.get(chunk), first, last, records.array());
+				batch.commit(baseName, first, last, header.getRecordSize());
+				boolean finished;
+				synchronized (AsyncLoader.this) {
+					finished = ++doneChunks == numChunks;
+				}
+				if (finished) {
+					finish();
+				} else {
+					readNextChunk();
+				}
+			}
+		}.start();
+	}
+
+	private void decode(List<Column.Builder> slice, int first, int last, byte[] records) {
+		int recordSize = header.getRecordSize();
+		byte[] record = new byte[recordSize];
+		for (int r = first; r < last; r++) {
+			System.arraycopy(records, (r - first) * recordSize, record, 0, recordSize);
+			dbf.decode(slice, r, record);
+		}
+	}
+
+	private void finish() {
+		for (List<Column.Builder> slice : slices) {
+			for (int c = 0; c < builders.size(); c++) {
+				if (slice.get(c) != builders.get(c)) {
+					builders.get(c).join(slice.get(c));
+				}
+			}
+		}
+		dbf.build(builders);
+		event.commit();
+		close(channel);
+		result.complete(dbf);
+	}
+
+	private void fail(Throwable e) {
+		close(channel);
+		result.completeExceptionally(e);
+	}
+
+	private static void close(AsynchronousFileChannel c) {
+		try {
+			if (c != null) {
+				c.close();
+			}
+		} catch (IOException e) {
+			// nothing left to read from it
+		}
+	}
+}
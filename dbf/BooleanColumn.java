@@ -0,0 +1,58 @@
+/**
+ * BooleanColumn holds the values of a Logical column as bits.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.util.BitSet;
+
+class BooleanColumn extends Column {
+	private BitSet values;
+	private BitSet nulls;
+
+	static class Builder extends Column.Builder {
+		private long[] values;
+		private long[] nulls;
+
+		Builder(Field field, int numRecords) {
+			super(field);
+			values = new long[(numRecords + 63) / 64];
+			nulls = new long[(numRecords + 63) / 64];
+		}
+
+		@Override
+		void set(int row, byte[] record) {
+			byte b = record[getField().getOffset()];
+			if (!Numbers.isLogical(b)) {
+				// '?' or blank: the value is unknown
+				setBit(nulls, row);
+			} else if (Numbers.parseLogical(b)) {
+				setBit(values, row);
+			}
+		}
+
+		@Override
+		BooleanColumn build() {
+			return new BooleanColumn(getField(), BitSet.valueOf(values),
+					BitSet.valueOf(nulls));
+		}
+	}
+
+	private BooleanColumn(Field field, BitSet newValues, BitSet newNulls) {
+		super(field);
+		values = newValues;
+		nulls = newNulls;
+	}
+
+	@Override
+	boolean isNull(int row) {
+		return nulls.get(row);
+	}
+
+	@Override
+	boolean getBoolean(int row) {
+		return values.get(row);
+	}
+}
@@ -0,0 +1,386 @@
+/**
+ * CharColumn holds the values of a Character column.
+ * Rather than one String per cell, the trimmed bytes of all the cells are
+ * kept in a single array indexed by an offset and a length per row.
+ * Strings are only built when a cell is read as a String, decoded in the code
+ * page of the table.
+ * A column with few distinct values is instead stored as a dictionary of
+ * those values and a one byte code per row.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+class CharColumn extends Column {
+	// the most distinct values a dictionary can hold, one per byte code
+	static final int MAX_DICTIONARY_SIZE = 256;
+	// the largest array the virtual machines allocate
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private TextDecoder decoder;
+	private byte[] data;
+	// indexed by row, or by code for a dictionary
+	private int[] offsets;
+	private int[] lengths;
+	// null unless the column is a dictionary
+	private byte[] codes;
+	private String[] values;
+
+	/**
+	 * Builds a CharColumn appending the cells in row order.
+	 */
+	static class Builder extends Column.Builder {
+		private TextDecoder decoder;
+		// allocated when the first cell is set, which never happens to a
+		// builder split into slices
+		private byte[] data = new byte[0];
+		// the bytes expected for the cells
+		private int capacity;
+		private int size;
+		private int[] offsets;
+		private int[] lengths;
+		// the rows set, for the builder of a slice
+		private int firstRow = Integer.MAX_VALUE;
+		private int lastRow = -1;
+
+		Builder(Field field, int numRecords, TextDecoder decoder) {
+			// cells are often much shorter than the field
+			this(field, decoder, new int[numRecords], new int[numRecords],
+					(int) Math.min((long) numRecords * Math.min(field.getLength(), 16),
+							MAX_ARRAY_SIZE));
+		}
+
+		private Builder(Field field, TextDecoder newDecoder, int[] newOffsets,
+				int[] newLengths, int newCapacity) {
+			super(field);
+			decoder = newDecoder;
+			capacity = Math.max(16, newCapacity);
+			offsets = newOffsets;
+			lengths = newLengths;
+		}
+
+		/**
+		 * The builder of a slice shares the offsets and lengths, but has its
+		 * own bytes. This builder then only gets the bytes of the slices, so
+		 * it grows to hold them as they are joined.
+		 */
+		@Override
+		Builder split() {
+			capacity = 16;
+			return new Builder(getField(), decoder, offsets, lengths, 16);
+		}
+
+		/**
+		 * Appends the bytes of a slice, moving its offsets after the bytes
+		 * already held.
+		 */
+		@Override
+		void join(Column.Builder slice) {
+			Builder b = (Builder) slice;
+			ensureCapacity((long) size + b.size);
+			System.arraycopy(b.data, 0, data, size, b.size);
+			for (int row = b.firstRow; row <= b.lastRow; row++) {
+				offsets[row] += size;
+			}
+			size += b.size;
+		}
+
+		/**
+		 * Stores the trimmed content of a cell.
+		 */
+		@Override
+		void set(int row, byte[] record) {
+			int start = getField().getOffset();
+			int end = start + getField().getLength();
+			while (start < end && (record[start] & 0xff) <= ' ') {
+				start++;
+			}
+			while (end > start && (record[end - 1] & 0xff) <= ' ') {
+				end--;
+			}
+			ensureCapacity((long) size + end - start);
+			System.arraycopy(record, start, data, size, end - start);
+			offsets[row] = size;
+			lengths[row] = end - start;
+			size += end - start;
+			firstRow = Math.min(firstRow, row);
+			lastRow = Math.max(lastRow, row);
+		}
+
+		/**
+		 * Grows the bytes to hold a number of them, at least doubling them.
+		 *
+		 * @throws IllegalStateException
+		 *             if the cells of the field take more bytes than an array
+		 *             can hold
+		 */
+		private void ensureCapacity(long needed) {
+			if (needed <= data.length) {
+				return;
+			}
+			if (needed > MAX_ARRAY_SIZE) {
+				throw new IllegalStateException("The cells of field " + getField().getName()
+						+ " take more than " + MAX_ARRAY_SIZE + " bytes");
+			}
+			long grown = Math.max(needed, Math.max(capacity, data.length * 2L));
+			data = Arrays.copyOf(data, (int) Math.min(grown, MAX_ARRAY_SIZE));
+		}
+
+		/**
+		 * @return a dictionary column if the cells have few distinct values,
+		 *         a plain one otherwise
+		 */
+		@Override
+		CharColumn build() {
+			CharColumn dictionary = buildDictionary();
+			if (dictionary != null) {
+				return dictionary;
+			}
+			return new CharColumn(getField(), decoder, Arrays.copyOf(data, size),
+					offsets, lengths, null);
+		}
+
+		private CharColumn buildDictionary() {
+			// open addressing table of codes + 1, twice the dictionary size
+			int[] table = new int[MAX_DICTIONARY_SIZE * 2];
+			int[] entries = new int[MAX_DICTIONARY_SIZE];
+			byte[] rowCodes = new byte[offsets.length];
+			int count = 0;
+			for (int row = 0; row < offsets.length; row++) {
+				int slot = hash(data, offsets[row], lengths[row]) & (table.length - 1);
+				while (table[slot] != 0 && !equal(entries[table[slot] - 1], row)) {
+					slot = (slot + 1) & (table.length - 1);
+				}
+				if (table[slot] == 0) {
+					if (count == MAX_DICTIONARY_SIZE) {
+						return null;
+					}
+					// an entry is known by the first row holding its value
+					entries[count++] = row;
+					table[slot] = count;
+				}
+				rowCodes[row] = (byte) (table[slot] - 1);
+			}
+			if (count * 2 > offsets.length) {
+				// values hardly repeat, a dictionary would save nothing
+				return null;
+			}
+			int dictionarySize = 0;
+			for (int code = 0; code < count; code++) {
+				dictionarySize += lengths[entries[code]];
+			}
+			byte[] dictionaryData = new byte[dictionarySize];
+			int[] dictionaryOffsets = new int[count];
+			int[] dictionaryLengths = new int[count];
+			int pos = 0;
+			for (int code = 0; code < count; code++) {
+				int row = entries[code];
+				System.arraycopy(data, offsets[row], dictionaryData, pos, lengths[row]);
+				dictionaryOffsets[code] = pos;
+				dictionaryLengths[code] = lengths[row];
+				pos += lengths[row];
+			}
+			return new CharColumn(getField(), decoder, dictionaryData,
+					dictionaryOffsets, dictionaryLengths, rowCodes);
+		}
+
+		private boolean equal(int row1, int row2) {
+			return CharColumn.equal(data, offsets[row1], lengths[row1],
+					data, offsets[row2], lengths[row2]);
+		}
+	}
+
+	/**
+	 * A view of the bytes of a cell as characters, for code pages where every
+	 * character is a single byte.
+	 */
+	private static class ByteChars implements CharSequence {
+		private TextDecoder decoder;
+		private byte[] data;
+		private int offset;
+		private int length;
+
+		ByteChars(TextDecoder newDecoder, byte[] newData, int newOffset, int newLength) {
+			decoder = newDecoder;
+			data = newData;
+			offset = newOffset;
+			length = newLength;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("Index " + index);
+			}
+			return decoder.toChar(data[offset + index]);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end) {
+				throw new IndexOutOfBoundsException(start + ", " + end);
+			}
+			return new ByteChars(decoder, data, offset + start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			String s = decoder.decodeTrimmed(data, offset, length);
+			return s == null ? "" : s;
+		}
+	}
+
+	private CharColumn(Field field, TextDecoder newDecoder, byte[] newData,
+			int[] newOffsets, int[] newLengths, byte[] newCodes) {
+		super(field);
+		decoder = newDecoder;
+		data = newData;
+		offsets = newOffsets;
+		lengths = newLengths;
+		codes = newCodes;
+		if (codes != null) {
+			// so that reading a dictionary column allocates nothing
+			values = new String[offsets.length];
+			for (int code = 0; code < values.length; code++) {
+				values[code] = decode(code);
+			}
+		}
+	}
+
+	/**
+	 * @return whether the column is stored as a dictionary
+	 */
+	boolean isDictionary() {
+		return codes != null;
+	}
+
+	/**
+	 * @return the string or null if the cell is blank
+	 */
+	@Override
+	String getString(int row) {
+		if (codes != null) {
+			return values[codes[row] & 0xff];
+		}
+		return decode(row);
+	}
+
+	/**
+	 * @return a view of the cell that doesn't copy it, or null if it is blank.
+	 *         In code pages with characters of several bytes the cell is
+	 *         decoded into a String instead.
+	 */
+	@Override
+	CharSequence getChars(int row) {
+		int slot = slot(row);
+		if (lengths[slot] == 0) {
+			return null;
+		}
+		if (!decoder.isSingleByte()) {
+			return getString(row);
+		}
+		return new ByteChars(decoder, data, offsets[slot], lengths[slot]);
+	}
+
+	/**
+	 * @return a read-only buffer sharing the bytes of the cell, empty if the
+	 *         cell is blank
+	 */
+	@Override
+	ByteBuffer getBytes(int row) {
+		int slot = slot(row);
+		return ByteBuffer.wrap(data, offsets[slot], lengths[slot]).slice()
+				.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Finds the rows whose cell is equal to a value. A dictionary column
+	 * compares the value once per distinct value, then only compares codes.
+	 *
+	 * @param value
+	 *            the value looked for, null for blank cells
+	 * @param rows
+	 *            where the rows found are set
+	 */
+	@Override
+	void select(String value, BitSet rows) {
+		byte[] v = decoder.encode(value);
+		if (codes != null) {
+			for (int code = 0; code < offsets.length; code++) {
+				if (equal(data, offsets[code], lengths[code], v, 0, v.length)) {
+					byte c = (byte) code;
+					for (int row = 0; row < codes.length; row++) {
+						if (codes[row] == c) {
+							rows.set(row);
+						}
+					}
+					return;
+				}
+			}
+			return;
+		}
+		for (int row = 0; row < offsets.length; row++) {
+			if (equal(data, offsets[row], lengths[row], v, 0, v.length)) {
+				rows.set(row);
+			}
+		}
+	}
+
+	/**
+	 * Parses the cell as a number, for Character fields holding numbers.
+	 *
+	 * @return the number, 0 if the cell is blank
+	 * @throws NumberFormatException
+	 */
+	@Override
+	int getInt(int row) {
+		int slot = slot(row);
+		return Numbers.parseInt(data, offsets[slot], lengths[slot]);
+	}
+
+	@Override
+	long getLong(int row) {
+		int slot = slot(row);
+		return Numbers.parseLong(data, offsets[slot], lengths[slot]);
+	}
+
+	private int slot(int row) {
+		return codes == null ? row : codes[row] & 0xff;
+	}
+
+	private String decode(int slot) {
+		return decoder.decodeTrimmed(data, offsets[slot], lengths[slot]);
+	}
+
+	private static int hash(byte[] buf, int offset, int length) {
+		int h = 1;
+		for (int i = offset; i < offset + length; i++) {
+			h = 31 * h + buf[i];
+		}
+		// spread the bits, the table is indexed by the lowest ones
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equal(byte[] a, int aOffset, int aLength,
+			byte[] b, int bOffset, int bLength) {
+		if (aLength != bLength) {
+			return false;
+		}
+		for (int i = 0; i < aLength; i++) {
+			if (a[aOffset + i] != b[bOffset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Column holds the values of a field for every row of a loaded table.
+ * Each type of field is stored in the subclass suited to it, using arrays
+ * of primitive values rather than objects.
+ * The getters not suited to the type of the field throw
+ * UnsupportedOperationException.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+abstract class Column {
+	private Field field;
+
+	/**
+	 * Builds a Column from the records of a table, decoding the bytes of one
+	 * field.
+	 */
+	abstract static class Builder {
+		private Field field;
+
+		Builder(Field newField) {
+			field = newField;
+		}
+
+		Field getField() {
+			return field;
+		}
+
+		/**
+		 * Decodes the field of a record.
+		 *
+		 * @param row
+		 *            the row of the record
+		 * @param record
+		 *            the buffer holding the record
+		 */
+		abstract void set(int row, byte[] record);
+
+		/**
+		 * Returns a builder decoding a slice of the rows, which can be used by
+		 * a thread while other slices are decoded by other threads.
+		 * Slices must start on a multiple of 64 rows, so that bits of
+		 * different slices never share a word.
+		 * The default returns this builder, as rows are stored in disjoint
+		 * regions of its arrays.
+		 */
+		Builder split() {
+			return this;
+		}
+
+		/**
+		 * Adds what a builder returned by split decoded. Slices are joined in
+		 * row order once they are all decoded.
+		 */
+		void join(Builder slice) {
+		}
+
+		abstract Column build();
+	}
+
+	/**
+	 * Sets a bit in an array of words that becomes a BitSet once the column is
+	 * built. Unlike a BitSet, concurrent writers of different words are safe.
+	 */
+	static void setBit(long[] words, int row) {
+		words[row >>> 6] |= 1L << row;
+	}
+
+	Column(Field newField) {
+		field = newField;
+	}
+
+	/**
+	 * Creates the builder suited to a field.
+	 *
+	 * @param field
+	 * @param header
+	 *            the header of the table
+	 * @param fpt
+	 *            the memo file of the table, or null
+	 * @return the builder or null if the type of the field is not supported
+	 */
+	static Builder builder(Field field, Header header, FPT fpt) {
+		int numRecords = header.getNumRecords();
+		switch (field.getType()) {
+		case 'C':
+			return new CharColumn.Builder(field, numRecords, header.getDecoder());
+		case 'M':
+		case 'P':
+		case 'G':
+		case 'W':
+			return new MemoColumn.Builder(field, numRecords, fpt);
+		case 'N':
+			if (field.getDecimals() > 0) {
+				return new DoubleColumn.Builder(field, numRecords);
+			}
+			// 9 digits always fit in an int
+			if (field.getLength() > 9) {
+				return new LongColumn.Builder(field, numRecords);
+			}
+			return new IntColumn.Builder(field, numRecords);
+		case 'I':
+			return new IntColumn.Builder(field, numRecords);
+		case 'F':
+		case 'B':
+			return new DoubleColumn.Builder(field, numRecords);
+		case 'D':
+		case 'T':
+		case 'Y':
+			return new LongColumn.Builder(field, numRecords);
+		case 'L':
+			return new BooleanColumn.Builder(field, numRecords);
+		default:
+			return null;
+		}
+	}
+
+	Field getField() {
+		return field;
+	}
+
+	/**
+	 * @return whether the field holds no value
+	 */
+	boolean isNull(int row) {
+		return false;
+	}
+
+	String getString(int row) {
+		throw unsupported("string");
+	}
+
+	CharSequence getChars(int row) {
+		throw unsupported("string");
+	}
+
+	ByteBuffer getBytes(int row) {
+		throw unsupported("string");
+	}
+
+	Memo getMemo(int row) {
+		throw unsupported("memo");
+	}
+
+	int getInt(int row) {
+		throw unsupported("int");
+	}
+
+	long getLong(int row) {
+		throw unsupported("long");
+	}
+
+	double getDouble(int row) {
+		throw unsupported("double");
+	}
+
+	boolean getBoolean(int row) {
+		throw unsupported("boolean");
+	}
+
+	void select(String value, BitSet rows) {
+		throw unsupported("string");
+	}
+
+	void select(int value, BitSet rows) {
+		throw unsupported("int");
+	}
+
+	private UnsupportedOperationException unsupported(String what) {
+		return new UnsupportedOperationException("Field " + field.getName()
+				+ " of type " + field.getType() + " can't be read as " + what);
+	}
+}
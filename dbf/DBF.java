@@ -6,23 +6,29 @@
  */
 package cuxna.dbf;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
-public class DBF {
-	private DataInputStream stream;
-	private FPT fpt;
+public class DBF implements Table {
+	// below this many records per slice threads cost more than they save
+	private static final int MIN_SLICE_SIZE = 4096;
 	private int numFields;
 	private int numRecords;
-	private Map<String, String[]> stringColumns = new HashMap<String, String[]>();
-	private Map<String, int[]> intColumns = new HashMap<String, int[]>();
+	private Map<String, Column> columns = new HashMap<String, Column>();
+	private BitSet deleted = new BitSet();
+	// the deleted rows while the table is loaded, as words of bits
+	private long[] deletedWords;
 
 	/**
 	 * Creates an object representing data contained in a DBF file.
@@ -32,155 +38,486 @@ public class DBF {
 	 * @throws IOException
 	 */
 	public DBF(String baseName) throws IOException {
-		String dbfFileName = findExt(baseName, "dbf");
-		stream = new DataInputStream(new BufferedInputStream(
-				new FileInputStream(dbfFileName)));
-		// read header
-		int dbType = stream.read() + 128;
-		stream.skip(3); // last updated YYMMDD
-		numRecords = Integer.reverseBytes(stream.readInt());
-		int firstRecord = Short.reverseBytes(stream.readShort());
-		stream.skip(2); // record size
-		stream.skip(16); // reserved
-		stream.skip(1); // table flags;
-		stream.skip(1); // code page mark
-		stream.skip(2); // reserved
-
-		// read fields description
-		numFields = (firstRecord - 32) / 32;
-		if (dbType >= 0x83) {
-			// Load the memo file
-			String fptFileName = findExt(baseName, "fpt");
-			fpt = new FPT(fptFileName);
+		this(baseName, new LoadOptions());
+	}
+
+	/**
+	 * Creates an object representing data contained in a DBF file, loading
+	 * it as described by the options.
+	 * 
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @param options
+	 * @throws IOException
+	 */
+	public DBF(String baseName, LoadOptions options) throws IOException {
+		this(Storage.LOCAL, baseName, options);
+	}
+
+	/**
+	 * Creates an object representing data contained in a DBF file found in
+	 * a storage, loading it as described by the options.
+	 * 
+	 * @param storage
+	 *            where the file is
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @param options
+	 * @throws IOException
+	 */
+	public DBF(Storage storage, String baseName, LoadOptions options) throws IOException {
+		if (options.isParallel()) {
+			loadParallel(storage, baseName, options);
+		} else {
+			load(storage, baseName, options);
 		}
+	}
 
-		int[] length = new int[numFields];
-		char[] type = new char[numFields];
-		String[] name = new String[numFields];
-
-		for (int n = 0; n < numFields; n++) {
-			String fieldName = readText(stream, 11);
-			char fieldType = (char) stream.read();
-			stream.skip(4); // field displacement;
-			int fieldLength = stream.read();
-			stream.skip(1); // number of decimal places
-			stream.skip(1); // field flags
-			stream.skip(13); // reserved
-
-			length[n] = fieldLength;
-			type[n] = fieldType;
-			name[n] = fieldName;
-
-			switch (fieldType) {
-			case 'M':
-			case 'C':
-				stringColumns.put(fieldName, new String[numRecords]);
-				break;
-			case 'N':
-				intColumns.put(fieldName, new int[numRecords]);
-				break;
+	/**
+	 * Creates a table to be loaded by an AsyncLoader.
+	 */
+	DBF() {
+	}
+
+	/**
+	 * Starts loading a DBF file without blocking the calling thread.
+	 * 
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @param options
+	 * @return the table, once it is loaded
+	 * @see #loadAsync(Storage, String, LoadOptions)
+	 */
+	public static CompletableFuture<DBF> loadAsync(String baseName, LoadOptions options) {
+		return loadAsync(Storage.LOCAL, baseName, options);
+	}
+
+	/**
+	 * Starts loading a DBF file found in a storage without blocking the
+	 * calling thread. The header, the records and the header of the memo file
+	 * of a local file are read with asynchronous reads, and records are
+	 * decoded as they arrive, so no thread waits for the disk. Files of other
+	 * storages are loaded by a thread of the common ForkJoinPool.
+	 * Only the loading is asynchronous: the memos of the table are read later,
+	 * when they are first needed, with blocking reads made by the thread
+	 * reading them, as for tables loaded by the constructors.
+	 * 
+	 * @param storage
+	 *            where the file is
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @param options
+	 *            the parallel option is ignored: records are decoded by the
+	 *            threads completing the reads
+	 * @return the table, once it is loaded
+	 */
+	public static CompletableFuture<DBF> loadAsync(Storage storage, String baseName,
+			LoadOptions options) {
+		return AsyncLoader.load(storage, baseName, options);
+	}
+
+	private void load(Storage storage, String baseName, LoadOptions options)
+			throws IOException {
+		TableOpenEvent event = new TableOpenEvent(baseName, "sequential");
+		event.begin();
+		long start = System.nanoTime();
+		RecordCursor cursor = new RecordCursor(storage, baseName);
+		try {
+			Header header = cursor.getHeader();
+			event.header(header, start);
+			FPT fpt = hasMemo(header, options) ? cursor.getFPT() : null;
+			List<Column.Builder> builders = builders(header, fpt, options);
+			// read records, decoding the fields straight from their bytes
+			DecodeEvent batch = new DecodeEvent();
+			batch.begin();
+			int first = 0;
+			while (cursor.nextRecord()) {
+				int row = cursor.getRow();
+				decode(builders, row, cursor.getRecord());
+				if (row + 1 - first == DecodeEvent.BATCH_ROWS) {
+					batch.commit(baseName, first, row + 1, header.getRecordSize());
+					batch = new DecodeEvent();
+					batch.begin();
+					first = row + 1;
+				}
 			}
+			if (first < numRecords) {
+				batch.commit(baseName, first, numRecords, header.getRecordSize());
+			}
+			build(builders);
+			event.commit();
+		} finally {
+			// the memo file is opened again when a memo is read
+			cursor.close();
 		}
-		stream.skip(1); // Header record terminator (should be 0x0D)
-		// dbfStream.skip(263); // back-link information. doesn't seem to exist
-		// read records
-		for (int r = 0; r < numRecords; r++) {
-			stream.skip(1); // delete-flag byte
-			for (int c = 0; c < numFields; c++) {
-				String d = readText(stream, length[c]);
-				if (!d.isEmpty()) {
-					switch (type[c]) {
-					case 'C':
-						stringColumns.get(name[c])[r] = d;
-						break;
-					case 'M':
-						stringColumns.get(name[c])[r] = fpt.getString(Integer
-								.parseInt(d));
-						break;
-					case 'N':
-						intColumns.get(name[c])[r] = Integer.parseInt(d);
-						break;
+	}
+
+	/**
+	 * Loads a table splitting its records in slices decoded by the threads
+	 * of a ForkJoinPool. As records have a fixed size, each slice reads its
+	 * records straight from the mapped file.
+	 */
+	private void loadParallel(Storage storage, String baseName, LoadOptions options)
+			throws IOException {
+		TableOpenEvent event = new TableOpenEvent(baseName, "parallel");
+		event.begin();
+		long start = System.nanoTime();
+		final ByteBuffer buffer = storage.map(storage.find(baseName, "dbf"));
+		final Header header = Header.read(buffer);
+		header.checkSize(buffer.capacity());
+		event.header(header, start);
+		final String table = baseName;
+		FPT fpt = hasMemo(header, options) ? new FPT(storage,
+				storage.find(baseName, "fpt"), header.getDecoder()) : null;
+		List<Column.Builder> builders = builders(header, fpt, options);
+		// several slices per thread, so that threads finishing early can steal
+		int slices = ForkJoinPool.getCommonPoolParallelism() * 4;
+		int sliceSize = Math.max(MIN_SLICE_SIZE, (numRecords + slices - 1) / slices);
+		// a slice starts on a multiple of 64 rows
+		sliceSize = (sliceSize + 63) & ~63;
+		List<List<Column.Builder>> sliceBuilders = new ArrayList<List<Column.Builder>>();
+		List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+		for (int from = 0; from < numRecords; from += sliceSize) {
+			final int first = from;
+			final int last = Math.min(from + sliceSize, numRecords);
+			final List<Column.Builder> slice = new ArrayList<Column.Builder>();
+			for (Column.Builder builder : builders) {
+				slice.add(builder.split());
+			}
+			sliceBuilders.add(slice);
+			tasks.add(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					DecodeEvent batch = new DecodeEvent();
+					batch.begin();
+					ByteBuffer records = buffer.duplicate();
+					byte[] record = new byte[header.getRecordSize()];
+					for (int r = first; r < last; r++) {
+						records.position(header.getRecordPosition(r));
+						records.get(record);
+						decode(slice, r, record);
 					}
+					batch.commit(table, first, last, header.getRecordSize());
+				}
+			});
+		}
+		ForkJoinTask.invokeAll(tasks);
+		for (List<Column.Builder> slice : sliceBuilders) {
+			for (int c = 0; c < builders.size(); c++) {
+				if (slice.get(c) != builders.get(c)) {
+					builders.get(c).join(slice.get(c));
 				}
 			}
 		}
-		fpt.close();
-		stream.close();
+		build(builders);
+		event.commit();
+		if (fpt != null) {
+			// the memo file is opened again when a memo is read
+			fpt.close();
+		}
 	}
 
 	/**
-	 * @return the number of records(rows) in the database.
+	 * @return whether any of the fields to be loaded is a memo
 	 */
-	public int getNumRecords() {
-		return numRecords;
+	static boolean hasMemo(Header header, LoadOptions options) {
+		for (Field field : header.getFields()) {
+			if (field.isMemo() && options.isLoaded(field.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	List<Column.Builder> builders(Header header, FPT fpt, LoadOptions options) {
+		numRecords = header.getNumRecords();
+		numFields = header.getFields().length;
+		deletedWords = new long[(numRecords + 63) >>> 6];
+		List<Column.Builder> builders = new ArrayList<Column.Builder>();
+		for (Field field : header.getFields()) {
+			if (!options.isLoaded(field.getName())) {
+				// its bytes are skipped with the rest of the record
+				continue;
+			}
+			Column.Builder builder = Column.builder(field, header, fpt);
+			// fields of unsupported types are skipped
+			if (builder != null) {
+				builders.add(builder);
+			}
+		}
+		return builders;
+	}
+
+	/**
+	 * Decodes a record, unless it is deleted: then it is only flagged as such.
+	 * Can be called by concurrent threads, as long as they decode slices of
+	 * rows starting on a multiple of 64.
+	 */
+	void decode(List<Column.Builder> builders, int row, byte[] record) {
+		if (Header.isDeleted(record, 0)) {
+			Column.setBit(deletedWords, row);
+			return;
+		}
+		for (Column.Builder builder : builders) {
+			builder.set(row, record);
+		}
+	}
+
+	void build(List<Column.Builder> builders) {
+		deleted = BitSet.valueOf(deletedWords);
+		deletedWords = null;
+		// columns with few distinct values are stored as dictionaries
+		for (Column.Builder builder : builders) {
+			columns.put(builder.getField().getName(), builder.build());
+		}
+	}
+
+	/**
+	 * Counts the records of a DBF file that are not deleted, without decoding
+	 * any: the number of records is taken from the header and only the deleted
+	 * flag of each record is read from the mapped file.
+	 * 
+	 * @param storage
+	 *            where the file is
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @return the number of records that are not deleted
+	 * @throws IOException
+	 */
+	public static int countLiveRecords(Storage storage, String baseName)
+			throws IOException {
+		ByteBuffer buffer = storage.map(storage.find(baseName, "dbf"));
+		Header header = Header.read(buffer);
+		header.checkSize(buffer.capacity());
+		int count = 0;
+		for (int r = 0; r < header.getNumRecords(); r++) {
+			if (buffer.get(header.getRecordPosition(r)) != '*') {
+				count++;
+			}
+		}
+		return count;
 	}
 
 	/**
-	 * @return the number of fields(columns) in the database.
+	 * Opens a DBF file for reading one record at a time, without loading it.
+	 * 
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @return a cursor positioned before the first record
+	 * @throws IOException
+	 */
+	public static RecordCursor openCursor(String baseName) throws IOException {
+		return new RecordCursor(Storage.LOCAL, baseName);
+	}
+
+	/**
+	 * Opens a DBF file found in a storage for reading one record at a time.
+	 * 
+	 * @param storage
+	 *            where the file is
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @return a cursor positioned before the first record
+	 * @throws IOException
 	 */
+	public static RecordCursor openCursor(Storage storage, String baseName)
+			throws IOException {
+		return new RecordCursor(storage, baseName);
+	}
+
+	@Override
+	public int getNumRecords() {
+		return numRecords;
+	}
+
+	@Override
 	public int getNumFields() {
 		return numFields;
 	}
 
 	/**
-	 * Reads a numeric value.
+	 * @return the number of records that are not deleted
+	 */
+	public int getNumLiveRecords() {
+		return numRecords - deleted.cardinality();
+	}
+
+	/**
+	 * The fields of a deleted record are not decoded, and read as blank.
+	 */
+	@Override
+	public boolean isDeleted(int row) {
+		if (row < 0 || row >= numRecords) {
+			throw new IndexOutOfBoundsException("Row " + row);
+		}
+		return deleted.get(row);
+	}
+
+	/**
+	 * @return the rows of the records that are not deleted, in order
+	 */
+	public PrimitiveIterator.OfInt liveRows() {
+		return new PrimitiveIterator.OfInt() {
+			private int next = deleted.nextClearBit(0);
+
+			@Override
+			public boolean hasNext() {
+				return next < numRecords;
+			}
+
+			@Override
+			public int nextInt() {
+				if (next >= numRecords) {
+					throw new NoSuchElementException();
+				}
+				int row = next;
+				next = deleted.nextClearBit(row + 1);
+				return row;
+			}
+		};
+	}
+
+	/**
+	 * @param column
+	 *            the name of a field
+	 * @return whether the field was loaded
+	 */
+	public boolean hasField(String column) {
+		return columns.containsKey(column);
+	}
+
+	@Override
+	public int readInt(int row, String column) {
+		return column(column).getInt(row);
+	}
+
+	@Override
+	public String readString(int row, String column) {
+		return column(column).getString(row);
+	}
+
+	/**
+	 * Reads a Character field without copying it.
 	 * 
 	 * @param row
 	 *            of the database
 	 * @param column
 	 *            of the database
-	 * @return the numeric value
+	 * @return a view of the characters or null if the field is blank
 	 */
-	public int readInt(int row, String column) {
-		return intColumns.get(column)[row];
+	public CharSequence readChars(int row, String column) {
+		return column(column).getChars(row);
 	}
 
 	/**
+	 * Reads the bytes of a Character field without copying them.
 	 * 
 	 * @param row
 	 *            of the database
 	 * @param column
 	 *            of the database
-	 * @return the string
+	 * @return a read-only buffer, empty if the field is blank
 	 */
-	public String readString(int row, String column) {
-		return stringColumns.get(column)[row];
+	public ByteBuffer readBytes(int row, String column) {
+		return column(column).getBytes(row);
+	}
+
+	@Override
+	public Memo readMemo(int row, String column) {
+		return column(column).getMemo(row);
 	}
 
 	/**
-	 * Utility function also used by the FPT class. It reads a string from an
-	 * InputStream and returns it.
+	 * Reads a value that needs a long: a wide Numeric, a Currency in
+	 * ten-thousandths, a Date in days since 1970-01-01 or a DateTime in
+	 * milliseconds since 1970-01-01T00:00.
 	 * 
-	 * @param stream
-	 *            the InputStream to read from
-	 * @param size
-	 *            how many bytes to read
-	 * @return the string read
-	 * @throws IOException
+	 * @param row
+	 *            of the database
+	 * @param column
+	 *            of the database
+	 * @return the value, 0 if the field is blank
 	 */
-	static String readText(InputStream stream, int size) throws IOException {
-		byte[] buf = new byte[size];
-		stream.read(buf, 0, size);
-		return new String(buf, "ISO-8859-1").trim();
+	public long readLong(int row, String column) {
+		return column(column).getLong(row);
 	}
 
 	/**
+	 * Reads a Numeric with decimals, a Float or a Double.
 	 * 
-	 * @param fileBase
-	 *            the name of the file without the extension
-	 * @param ext
-	 *            the name of the extension
-	 * @return the full name of the file, if one is found
-	 * @throws FileNotFoundException
-	 */
-	private String findExt(String fileBase, String ext)
-			throws FileNotFoundException {
-		for (String e : new String[] { ext.toLowerCase(), ext.toUpperCase() }) {
-			String name = fileBase + "." + e;
-			if (new File(name).exists()) {
-				return name;
-			}
+	 * @param row
+	 *            of the database
+	 * @param column
+	 *            of the database
+	 * @return the value, 0 if the field is blank
+	 */
+	public double readDouble(int row, String column) {
+		return column(column).getDouble(row);
+	}
+
+	/**
+	 * Reads a Logical.
+	 * 
+	 * @param row
+	 *            of the database
+	 * @param column
+	 *            of the database
+	 * @return the value, false if it is unknown
+	 */
+	public boolean readBoolean(int row, String column) {
+		return column(column).getBoolean(row);
+	}
+
+	/**
+	 * @param row
+	 *            of the database
+	 * @param column
+	 *            of the database
+	 * @return whether the field is blank, or unknown for a Logical
+	 */
+	public boolean isNull(int row, String column) {
+		return column(column).isNull(row);
+	}
+
+	/**
+	 * Finds the rows where a Character field is equal to a value, among the
+	 * records that are not deleted.
+	 * 
+	 * @param column
+	 *            of the database
+	 * @param value
+	 *            the value looked for, null for blank fields
+	 * @return the rows found
+	 */
+	public BitSet select(String column, String value) {
+		BitSet rows = new BitSet(numRecords);
+		column(column).select(value, rows);
+		rows.andNot(deleted);
+		return rows;
+	}
+
+	/**
+	 * Finds the rows where a Numeric field is equal to a value, among the
+	 * records that are not deleted.
+	 * 
+	 * @param column
+	 *            of the database
+	 * @param value
+	 *            the value looked for
+	 * @return the rows found
+	 */
+	public BitSet select(String column, int value) {
+		BitSet rows = new BitSet(numRecords);
+		column(column).select(value, rows);
+		rows.andNot(deleted);
+		return rows;
+	}
+
+	private Column column(String name) {
+		Column column = columns.get(name);
+		if (column == null) {
+			throw new IllegalArgumentException("No such field: " + name);
 		}
-		throw new FileNotFoundException();
+		return column;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,519 @@
+/**
+ * DBFWriter writes a table in the DBF format, with its memos in a .fpt file.
+ * The fields are added first, then records are written one at a time: the
+ * fields of a record are set, then the record is written and a blank one is
+ * started. Fields that are not set are left blank.
+ * Records are encoded into a reused buffer that is written out whenever it is
+ * full, and the number of records is written into the header when the file
+ * is closed, so the memory needed does not depend on the number of records.
+ * Memo fields are written as 10 characters, except in the Visual FoxPro
+ * format, used for tables with I, B, T or Y fields, where they hold the block
+ * number as a 4 byte binary int as Visual FoxPro does.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DBFWriter implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// the area Visual FoxPro keeps after the field descriptors
+	private static final int BACKLINK_SIZE = 263;
+	private static final int MEMO_LENGTH = 10;
+	private static final int BINARY_MEMO_LENGTH = 4;
+	private static final byte END_OF_FILE = 0x1A;
+
+	private String baseName;
+	private List<Field> fields = new ArrayList<Field>();
+	private Map<String, Field> fieldMap = new HashMap<String, Field>();
+	private int codePageMark;
+	private Charset charset = TextDecoder.DEFAULT.getCharset();
+	private int blockSize = FPTWriter.DEFAULT_BLOCK_SIZE;
+	private FileChannel channel;
+	private FPTWriter fpt;
+	private int firstRecord;
+	private int recordSize = 1;
+	// the record being set, and a blank one it is reset to
+	private byte[] record;
+	private byte[] blank;
+	private ByteBuffer buffer;
+	private int numRecords;
+
+	/**
+	 * Prepares to write a table, replacing the files with the same name.
+	 * Nothing is written until the first record is.
+	 *
+	 * @param newBaseName
+	 *            the name of the files without the extension
+	 */
+	public DBFWriter(String newBaseName) {
+		baseName = newBaseName;
+	}
+
+	/**
+	 * Adds a field of a type whose length is fixed: D, L, M, P, I, B, T or Y.
+	 *
+	 * @param name
+	 * @param type
+	 * @throws IllegalArgumentException
+	 *             if the type doesn't have a fixed length
+	 */
+	public void addField(String name, char type) {
+		int length;
+		switch (type) {
+		case 'L':
+			length = 1;
+			break;
+		case 'I':
+			length = 4;
+			break;
+		case 'D':
+		case 'B':
+		case 'T':
+		case 'Y':
+			length = 8;
+			break;
+		case 'M':
+		case 'P':
+			length = MEMO_LENGTH;
+			break;
+		default:
+			throw new IllegalArgumentException("Type " + type + " needs a length");
+		}
+		addField(name, type, length, 0);
+	}
+
+	/**
+	 * Adds a field of type C, N or F, or of a type with a fixed length.
+	 *
+	 * @param name
+	 *            at most 10 characters
+	 * @param type
+	 * @param length
+	 *            the number of bytes of the field
+	 * @param decimals
+	 *            the digits after the decimal point, for N and F
+	 * @throws IllegalArgumentException
+	 *             if the field can't be written
+	 * @throws IllegalStateException
+	 *             if a record was already written
+	 */
+	public void addField(String name, char type, int length, int decimals) {
+		if (record != null) {
+			throw new IllegalStateException("Fields must be added before records");
+		}
+		if (name.length() == 0 || name.length() > 10 || fieldMap.containsKey(name)) {
+			throw new IllegalArgumentException("Invalid field name: " + name);
+		}
+		if ("CNFLDIBTYMP".indexOf(type) < 0) {
+			throw new IllegalArgumentException("Type " + type + " not supported");
+		}
+		if (length < 1 || length > 254 || decimals < 0
+				|| decimals > 0 && decimals >= length - 1) {
+			throw new IllegalArgumentException("Invalid length of field " + name);
+		}
+		Field field = new Field(name, type, recordSize, length, decimals);
+		fields.add(field);
+		fieldMap.put(name, field);
+		recordSize += length;
+	}
+
+	/**
+	 * Sets the code page text is encoded with, 0 for none.
+	 *
+	 * @param mark
+	 *            the code page mark written in the header
+	 */
+	public void setCodePageMark(int mark) {
+		if (record != null) {
+			throw new IllegalStateException("The code page must be set before records");
+		}
+		codePageMark = mark & 0xff;
+		charset = TextDecoder.forCodePage(codePageMark).getCharset();
+	}
+
+	/**
+	 * Sets the size of the blocks of the memo file.
+	 *
+	 * @param size
+	 */
+	public void setBlockSize(int size) {
+		if (record != null) {
+			throw new IllegalStateException("The block size must be set before records");
+		}
+		blockSize = size;
+	}
+
+	/**
+	 * Sets a Character or Memo field.
+	 *
+	 * @param name
+	 *            the name of the field
+	 * @param value
+	 *            the value, truncated to the length of a Character field, or
+	 *            null for a blank field
+	 * @throws IOException
+	 *             if the memo can't be written
+	 */
+	public void setString(String name, String value) throws IOException {
+		Field field = field(name);
+		int offset = field.getOffset();
+		int length = field.getLength();
+		if (value == null) {
+			System.arraycopy(blank, offset, record, offset, length);
+			return;
+		}
+		switch (field.getType()) {
+		case 'C':
+			byte[] bytes = value.getBytes(charset);
+			int n = Math.min(bytes.length, length);
+			System.arraycopy(bytes, 0, record, offset, n);
+			Arrays.fill(record, offset + n, offset + length, (byte) ' ');
+			break;
+		case 'M':
+			setBlock(field, fpt.writeText(value.getBytes(charset)));
+			break;
+		default:
+			throw unsupported(field, "string");
+		}
+	}
+
+	/**
+	 * Sets a Picture or Memo field to some bytes.
+	 *
+	 * @param name
+	 *            the name of the field
+	 * @param value
+	 *            the bytes, or null for a blank field
+	 * @throws IOException
+	 *             if the memo can't be written
+	 */
+	public void setBytes(String name, ByteBuffer value) throws IOException {
+		Field field = field(name);
+		if (field.getType() != 'P' && field.getType() != 'M') {
+			throw unsupported(field, "bytes");
+		}
+		if (value == null) {
+			System.arraycopy(blank, field.getOffset(), record, field.getOffset(),
+					field.getLength());
+			return;
+		}
+		setBlock(field, fpt.writeBytes(value));
+	}
+
+	/**
+	 * Sets a field holding a whole number: a Numeric, an Integer, a Currency
+	 * in ten-thousandths, a Date in days since 1970-01-01 or a DateTime in
+	 * milliseconds since 1970-01-01T00:00, as DBF.readLong reads them.
+	 *
+	 * @param name
+	 *            the name of the field
+	 * @param value
+	 * @throws IllegalArgumentException
+	 *             if the value doesn't fit in the field
+	 */
+	public void setLong(String name, long value) {
+		Field field = field(name);
+		int offset = field.getOffset();
+		switch (field.getType()) {
+		case 'N':
+		case 'F':
+			long unscaled = value;
+			for (int d = 0; d < field.getDecimals(); d++) {
+				unscaled = Math.multiplyExact(unscaled, 10);
+			}
+			Numbers.formatNumber(record, offset, field.getLength(), unscaled,
+					field.getDecimals());
+			break;
+		case 'I':
+			Numbers.writeInt(record, offset, Math.toIntExact(value));
+			break;
+		case 'Y':
+			Numbers.writeLong(record, offset, value);
+			break;
+		case 'D':
+			Numbers.formatDate(record, offset, value);
+			break;
+		case 'T':
+			Numbers.writeDateTime(record, offset, value);
+			break;
+		default:
+			throw unsupported(field, "long");
+		}
+	}
+
+	/**
+	 * Sets a field holding a number with decimals: a Numeric or Float,
+	 * rounded to its decimals, a Double, or a Currency.
+	 *
+	 * @param name
+	 *            the name of the field
+	 * @param value
+	 * @throws IllegalArgumentException
+	 *             if the value doesn't fit in the field
+	 */
+	public void setDouble(String name, double value) {
+		Field field = field(name);
+		int offset = field.getOffset();
+		switch (field.getType()) {
+		case 'N':
+		case 'F':
+			double scaled = value * Math.pow(10, field.getDecimals());
+			if (Double.isNaN(scaled) || Math.abs(scaled) >= 0x1p63) {
+				throw new IllegalArgumentException(value + " can't be written in field "
+						+ name);
+			}
+			Numbers.formatNumber(record, offset, field.getLength(), Math.round(scaled),
+					field.getDecimals());
+			break;
+		case 'B':
+			Numbers.writeLong(record, offset, Double.doubleToLongBits(value));
+			break;
+		case 'Y':
+			Numbers.writeLong(record, offset, Math.round(value * 10000));
+			break;
+		default:
+			throw unsupported(field, "double");
+		}
+	}
+
+	/**
+	 * Sets a Logical field.
+	 *
+	 * @param name
+	 *            the name of the field
+	 * @param value
+	 *            the value, or null if it is unknown
+	 */
+	public void setBoolean(String name, Boolean value) {
+		Field field = field(name);
+		if (field.getType() != 'L') {
+			throw unsupported(field, "boolean");
+		}
+		record[field.getOffset()] = (byte) (value == null ? '?' : value ? 'T' : 'F');
+	}
+
+	/**
+	 * Leaves a field blank.
+	 *
+	 * @param name
+	 *            the name of the field
+	 */
+	public void setNull(String name) {
+		Field field = field(name);
+		System.arraycopy(blank, field.getOffset(), record, field.getOffset(),
+				field.getLength());
+	}
+
+	/**
+	 * Writes the record whose fields were set, then starts a blank one.
+	 *
+	 * @throws IOException
+	 */
+	public void writeRecord() throws IOException {
+		start();
+		if (buffer.remaining() < recordSize) {
+			flush();
+		}
+		buffer.put(record);
+		System.arraycopy(blank, 0, record, 0, recordSize);
+		numRecords++;
+	}
+
+	/**
+	 * @return the number of records written
+	 */
+	public int getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Writes the records still in the buffer, then the header with the number
+	 * of records, and closes the files.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		start();
+		if (channel == null) {
+			return;
+		}
+		try {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			buffer.put(END_OF_FILE);
+			flush();
+			channel.write(header(), 0);
+		} finally {
+			channel.close();
+			channel = null;
+			if (fpt != null) {
+				fpt.close();
+			}
+		}
+	}
+
+	/**
+	 * Creates the files when the first field is set or record is written,
+	 * the fields being known by then.
+	 */
+	private void start() throws IOException {
+		if (record != null) {
+			return;
+		}
+		if (fields.isEmpty()) {
+			throw new IllegalStateException("No fields added");
+		}
+		if (isVisualFoxPro()) {
+			binaryMemos();
+		}
+		record = new byte[recordSize];
+		blank = new byte[recordSize];
+		Arrays.fill(blank, (byte) ' ');
+		for (Field f : fields) {
+			if ("IBTY".indexOf(f.getType()) >= 0 || f.isMemo() && isVisualFoxPro()) {
+				// binary fields are blank when all their bytes are 0
+				Arrays.fill(blank, f.getOffset(), f.getOffset() + f.getLength(), (byte) 0);
+			}
+		}
+		System.arraycopy(blank, 0, record, 0, recordSize);
+		firstRecord = Header.BLOCK_SIZE * (fields.size() + 1) + 1;
+		if (isVisualFoxPro()) {
+			firstRecord += BACKLINK_SIZE;
+		}
+		channel = FileChannel.open(Paths.get(baseName + ".dbf"), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, recordSize + 1));
+		// the header is written again with the number of records at the end
+		buffer.put(header());
+		// the header declares a memo file even if all the memos are blank
+		if (hasMemo()) {
+			fpt = new FPTWriter(baseName + ".fpt", blockSize);
+		}
+	}
+
+	private ByteBuffer header() {
+		ByteBuffer h = ByteBuffer.allocate(firstRecord).order(ByteOrder.LITTLE_ENDIAN);
+		boolean memo = hasMemo();
+		h.put((byte) (isVisualFoxPro() ? 0x30 : memo ? 0xF5 : 0x03));
+		Calendar today = Calendar.getInstance();
+		h.put((byte) (today.get(Calendar.YEAR) % 100));
+		h.put((byte) (today.get(Calendar.MONTH) + 1));
+		h.put((byte) today.get(Calendar.DAY_OF_MONTH));
+		h.putInt(numRecords);
+		h.putShort((short) firstRecord);
+		h.putShort((short) recordSize);
+		h.put(28, (byte) (memo && isVisualFoxPro() ? 0x02 : 0));
+		h.put(29, (byte) codePageMark);
+		h.position(Header.BLOCK_SIZE);
+		for (Field f : fields) {
+			int pos = h.position();
+			byte[] name = f.getName().getBytes(TextDecoder.DEFAULT.getCharset());
+			h.put(name);
+			h.position(pos + 11);
+			h.put((byte) f.getType());
+			h.putInt(f.getOffset());
+			h.put((byte) f.getLength());
+			h.put((byte) f.getDecimals());
+			h.position(pos + Header.BLOCK_SIZE);
+		}
+		h.put((byte) 0x0D);
+		h.clear();
+		return h;
+	}
+
+	/**
+	 * @return whether the table has a memo file
+	 */
+	private boolean hasMemo() {
+		for (Field f : fields) {
+			if (f.isMemo()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether a field needs the Visual FoxPro format
+	 */
+	private boolean isVisualFoxPro() {
+		for (Field f : fields) {
+			if ("IBTY".indexOf(f.getType()) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lays the fields out again, the memo fields holding a binary block
+	 * number, once the table is known to be in the Visual FoxPro format.
+	 */
+	private void binaryMemos() {
+		List<Field> laidOut = new ArrayList<Field>();
+		fieldMap.clear();
+		recordSize = 1;
+		for (Field f : fields) {
+			Field field = new Field(f.getName(), f.getType(), recordSize,
+					f.isMemo() ? BINARY_MEMO_LENGTH : f.getLength(), f.getDecimals());
+			laidOut.add(field);
+			fieldMap.put(field.getName(), field);
+			recordSize += field.getLength();
+		}
+		fields = laidOut;
+	}
+
+	private void setBlock(Field field, int block) {
+		if (field.getLength() == BINARY_MEMO_LENGTH) {
+			Numbers.writeInt(record, field.getOffset(), block);
+		} else {
+			Numbers.formatNumber(record, field.getOffset(), field.getLength(), block, 0);
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private Field field(String name) {
+		if (!fieldMap.containsKey(name)) {
+			throw new IllegalArgumentException("No such field: " + name);
+		}
+		if (record == null) {
+			try {
+				start();
+			} catch (IOException e) {
+				throw new IllegalStateException("Can't create " + baseName, e);
+			}
+		}
+		// looked up once started, as memo fields may have been laid out again
+		return fieldMap.get(name);
+	}
+
+	private UnsupportedOperationException unsupported(Field field, String what) {
+		return new UnsupportedOperationException("Field " + field.getName()
+				+ " of type " + field.getType() + " can't be written as " + what);
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * DecodeEvent is recorded by the JDK Flight Recorder for each batch of
+ * records decoded while a table is loaded.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cuxna.DecodeBatch")
+@Label("Decode Batch")
+@Category({ "Cuxna", "DBF" })
+class DecodeEvent extends jdk.jfr.Event {
+	// the records of a batch when they are read one at a time
+	static final int BATCH_ROWS = 4096;
+
+	@Label("Table")
+	String table;
+
+	@Label("First Row")
+	int firstRow;
+
+	@Label("Rows")
+	int rows;
+
+	@Label("Size")
+	@DataAmount
+	long bytes;
+
+	/**
+	 * Ends the batch started when the event was created.
+	 *
+	 * @param newTable
+	 * @param first
+	 *            the first row of the batch
+	 * @param last
+	 *            the row after the last one
+	 * @param recordSize
+	 */
+	void commit(String newTable, int first, int last, int recordSize) {
+		end();
+		if (shouldCommit()) {
+			table = newTable;
+			firstRow = first;
+			rows = last - first;
+			bytes = (long) rows * recordSize;
+			commit();
+		}
+	}
+}
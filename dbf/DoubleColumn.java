@@ -0,0 +1,60 @@
+/**
+ * DoubleColumn holds the values of a Numeric column with decimals, of a
+ * Float column or of a Double column.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.util.BitSet;
+
+class DoubleColumn extends Column {
+	private double[] values;
+	private BitSet nulls;
+
+	static class Builder extends Column.Builder {
+		private double[] values;
+		private long[] nulls;
+
+		Builder(Field field, int numRecords) {
+			super(field);
+			values = new double[numRecords];
+			nulls = new long[(numRecords + 63) / 64];
+		}
+
+		@Override
+		void set(int row, byte[] record) {
+			Field field = getField();
+			int offset = field.getOffset();
+			if (field.getType() == 'B') {
+				values[row] = Double.longBitsToDouble(Numbers.readLong(record, offset));
+			} else if (Numbers.isBlank(record, offset, field.getLength())) {
+				setBit(nulls, row);
+			} else {
+				values[row] = Numbers.parseDouble(record, offset, field.getLength());
+			}
+		}
+
+		@Override
+		DoubleColumn build() {
+			return new DoubleColumn(getField(), values, BitSet.valueOf(nulls));
+		}
+	}
+
+	private DoubleColumn(Field field, double[] newValues, BitSet newNulls) {
+		super(field);
+		values = newValues;
+		nulls = newNulls;
+	}
+
+	@Override
+	boolean isNull(int row) {
+		return nulls.get(row);
+	}
+
+	@Override
+	double getDouble(int row) {
+		return values[row];
+	}
+}
@@ -2,79 +2,379 @@
  * DBF reads a .fpt file and extracts various data from it.
  * An .fpt is also called a "memo" file and is sometimes referred to from
  * a .dbf file.
- * 
+ * Memos are read with positional reads, so the cost of reading one does not
+ * depend on the memos read before it, and an instance can be shared by
+ * concurrent readers.
+ * The file is opened again if a memo is read after the instance is closed,
+ * as memo handles can outlive the table they come from.
+ * Binary memos, like pictures, are returned as slices of the file mapped in
+ * memory, so their bytes are only read when they are used.
+ * A file that is not on the local file system, like one inside an archive,
+ * can't be read at a position: each memo is read from a new stream skipped
+ * to its position, so that only the memo is held in memory, never the file.
+ * Files held in memory are read from their buffer.
+ *
  * @author Andrea Chiavazza
  * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
  */
 package cuxna.dbf;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class FPT {
+	// block signature and memo length
+	private static final int BLOCK_HEADER_SIZE = 8;
 	private int blockSize;
+	private Storage storage;
 	private String fileName;
-	private BufferedInputStream BIStream;
-	private DataInputStream DIStream;
-	private int blockPos;
+	private TextDecoder decoder;
+	private FileChannel channel;
+	// false once the storage turns out not to support positional reads
+	private boolean positional = true;
+	// the whole file, mapped the first time a binary memo is read, or the
+	// buffer of a file held in memory
+	private ByteBuffer mapped;
+	// false once the file turns out to be readable only as a stream
+	private boolean viewable = true;
+	// where the last memo read ended, to tell how far the next one is
+	private long lastEnd;
 
 	/**
 	 * Creates an instance given a filename;
-	 * 
+	 *
+	 * @param newStorage
+	 *            where the file is
 	 * @param name
 	 *            the filename
+	 * @param newDecoder
+	 *            the decoder of the table the memos belong to
 	 * @throws IOException
 	 */
-	FPT(String name) throws IOException {
+	FPT(Storage newStorage, String name, TextDecoder newDecoder) throws IOException {
+		storage = newStorage;
 		fileName = name;
-		BIStream = new BufferedInputStream(new FileInputStream(fileName));
-		DIStream = new DataInputStream(BIStream);
-		if (DIStream.markSupported()) {
-			DIStream.mark(32);
-		}
+		decoder = newDecoder;
 		// read header
-		DIStream.skip(4); // next free block
-		DIStream.skip(2); // unused
-		blockSize = DIStream.readShort();
-		// stream.skip(504); // unused
-		if (DIStream.markSupported()) {
-			DIStream.reset();
-			blockPos = 0;
-		} else {
-			DIStream.close();
+		ByteBuffer header = ByteBuffer.allocate(8);
+		try {
+			readFully(header, 0);
+		} catch (IOException e) {
+			close();
+			throw e;
 		}
+		blockSize = readBlockSize(header);
+	}
+
+	/**
+	 * Creates an instance whose header was already read.
+	 *
+	 * @param newBlockSize
+	 *            the block size found in the header
+	 */
+	FPT(Storage newStorage, String name, TextDecoder newDecoder, int newBlockSize) {
+		storage = newStorage;
+		fileName = name;
+		decoder = newDecoder;
+		blockSize = newBlockSize;
+	}
+
+	/**
+	 * @param header
+	 *            a buffer holding the first 8 bytes of the file
+	 * @return the block size found in the header
+	 */
+	static int readBlockSize(ByteBuffer header) {
+		// 4 bytes: next free block, 2 bytes: unused
+		return header.getShort(6) & 0xffff;
+		// 504 bytes: unused
 	}
 
 	/**
 	 * Reads the string found at a given block number.
-	 * 
+	 *
 	 * @param blockNumber
 	 * @return the string read
 	 * @throws IOException
 	 */
 	String getString(int blockNumber) throws IOException {
-		if (blockNumber <= blockPos || !DIStream.markSupported()) {
-			DIStream.close();
-			BIStream = new BufferedInputStream(new FileInputStream(fileName));
-			DIStream = new DataInputStream(BIStream);
-			blockPos = 0;
-		}
-		// find block
-		DIStream.skip(blockNumber * (blockSize - blockPos));
-		blockPos = blockSize;
+		MemoFetchEvent event = new MemoFetchEvent();
+		event.begin();
+		long position = (long) blockNumber * blockSize;
+		if (isStreamed()) {
+			ByteBuffer block = readStreamed(blockNumber);
+			checkText(blockNumber, block);
+			int memoLength = block.remaining();
+			String result = decoder.decode(block.array(), block.position(), memoLength);
+			fetched(event, blockNumber, false, memoLength);
+			return result == null ? "" : result;
+		}
 		// read block
-		int signature = DIStream.readInt(); // block signature 0-picture 1-text
+		ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+		readFully(blockHeader, position);
+		checkText(blockNumber, blockHeader);
+		int memoLength = blockHeader.getInt(4);
+		checkLength(blockNumber, memoLength, size());
+		ByteBuffer memo = ByteBuffer.allocate(memoLength);
+		readFully(memo, position + BLOCK_HEADER_SIZE);
+		String result = decoder.decode(memo.array(), 0, memoLength);
+		fetched(event, blockNumber, false, memoLength);
+		return result == null ? "" : result;
+	}
+
+	/**
+	 * Reads the bytes of the memo found at a given block number, whatever its
+	 * type. Nothing is copied: the buffer returned shares the memory the file
+	 * is mapped to, and stays valid after the instance is closed. Only the
+	 * memos of files that can't be mapped, like those in an archive, are read
+	 * into a buffer of their own.
+	 *
+	 * @param blockNumber
+	 * @return a read-only buffer holding the bytes of the memo
+	 * @throws IOException
+	 */
+	ByteBuffer getBytes(int blockNumber) throws IOException {
+		MemoFetchEvent event = new MemoFetchEvent();
+		event.begin();
+		ByteBuffer file = mapped();
+		long position = (long) blockNumber * blockSize;
+		if (file == null) {
+			ByteBuffer memo = readStreamed(blockNumber);
+			fetched(event, blockNumber, true, memo.remaining());
+			return memo.slice().asReadOnlyBuffer();
+		}
+		if (position + BLOCK_HEADER_SIZE > file.capacity()) {
+			throw new IOException("Memo at block " + blockNumber + " is truncated");
+		}
+		int memoLength = file.getInt((int) position + 4);
+		checkLength(blockNumber, memoLength, file.capacity());
+		ByteBuffer memo = file.duplicate();
+		memo.position((int) position + BLOCK_HEADER_SIZE);
+		memo.limit((int) position + BLOCK_HEADER_SIZE + memoLength);
+		fetched(event, blockNumber, true, memoLength);
+		return memo.slice();
+	}
+
+	/**
+	 * Records the reading of a memo. Concurrent readers may see each other's
+	 * positions, which only blurs the seek distance.
+	 */
+	private void fetched(MemoFetchEvent event, int blockNumber, boolean picture,
+			int memoLength) {
+		long position = (long) blockNumber * blockSize;
+		long end = position + BLOCK_HEADER_SIZE + memoLength;
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = fileName;
+			event.block = blockNumber;
+			event.picture = picture;
+			event.bytes = memoLength;
+			event.seekDistance = position - lastEnd;
+			event.commit();
+		}
+		lastEnd = end;
+	}
+
+	Storage getStorage() {
+		return storage;
+	}
+
+	String getFileName() {
+		return fileName;
+	}
+
+	TextDecoder getDecoder() {
+		return decoder;
+	}
+
+	int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Releases the file. A mapping already made is dropped, but stays valid
+	 * for the buffers returned by getBytes.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		mapped = null;
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * @return the whole file or null if it can only be read as a stream
+	 */
+	private synchronized ByteBuffer mapped() throws IOException {
+		if (mapped == null && viewable) {
+			// big endian, as the headers of the blocks
+			mapped = storage.view(fileName);
+			viewable = mapped != null;
+		}
+		return mapped;
+	}
+
+	/**
+	 * @return the channel or null if the file can't be read at a position
+	 */
+	private synchronized FileChannel channel() throws IOException {
+		// also replaces a channel closed by the interruption of a reader
+		if (positional && (channel == null || !channel.isOpen())) {
+			channel = storage.openFile(fileName);
+			positional = channel != null;
+		}
+		return channel;
+	}
+
+	private long size() throws IOException {
+		FileChannel c = channel();
+		if (c != null) {
+			return c.size();
+		}
+		ByteBuffer file = mapped();
+		return file == null ? storage.size(fileName) : file.capacity();
+	}
+
+	/**
+	 * @return whether the file can only be read as a stream
+	 */
+	private boolean isStreamed() throws IOException {
+		return channel() == null && mapped() == null;
+	}
+
+	/**
+	 * Checks that a block holds a text memo.
+	 *
+	 * @param block
+	 *            the block, its header starting at position 0
+	 */
+	private void checkText(int blockNumber, ByteBuffer block) throws IOException {
+		int signature = block.getInt(0); // block signature 0-picture 1-text
 		if (signature == 0) {
-			throw new IOException("Picture memos not supported");
+			throw new IOException("Memo at block " + blockNumber
+					+ " is a picture, read it with getBytes");
+		}
+	}
+
+	/**
+	 * Checks that a memo ends within the file.
+	 */
+	private void checkLength(int blockNumber, int memoLength, long fileSize)
+			throws IOException {
+		long position = (long) blockNumber * blockSize;
+		if (memoLength < 0 || position + BLOCK_HEADER_SIZE + memoLength > fileSize) {
+			throw new IOException("Memo at block " + blockNumber + " is truncated");
+		}
+	}
+
+	/**
+	 * Fills a buffer with the bytes found at a position of the file, without
+	 * moving the position of the channel.
+	 */
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		FileChannel c = channel();
+		if (c == null) {
+			ByteBuffer file = mapped();
+			if (file == null) {
+				readStream(buffer, position);
+				return;
+			}
+			if (position + buffer.remaining() > file.capacity()) {
+				throw new EOFException();
+			}
+			ByteBuffer bytes = file.duplicate();
+			bytes.position((int) position);
+			bytes.limit((int) position + buffer.remaining());
+			buffer.put(bytes);
+			return;
+		}
+		while (buffer.hasRemaining()) {
+			int read = c.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * Reads a memo of a file that can't be read at a position from a single
+	 * stream skipped to its block.
+	 *
+	 * @return a buffer holding the block, positioned at the start of the memo
+	 */
+	private ByteBuffer readStreamed(int blockNumber) throws IOException {
+		InputStream in = openAt((long) blockNumber * blockSize);
+		try {
+			ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+			fill(in, blockHeader);
+			int memoLength = blockHeader.getInt(4);
+			checkLength(blockNumber, memoLength, size());
+			ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + memoLength);
+			blockHeader.flip();
+			block.put(blockHeader);
+			fill(in, block);
+			block.position(BLOCK_HEADER_SIZE);
+			return block;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fills a buffer with the bytes found at a position of a file that can't
+	 * be read at a position.
+	 */
+	private void readStream(ByteBuffer buffer, long position) throws IOException {
+		InputStream in = openAt(position);
+		try {
+			fill(in, buffer);
+		} finally {
+			in.close();
 		}
-		int memoLength = DIStream.readInt();
-		String result = DBF.readText(DIStream, memoLength);
-		return result;
 	}
 
-	public void close() throws IOException {
-		BIStream.close();
+	/**
+	 * Opens a new stream on the file, skipping the bytes before a position.
+	 */
+	private InputStream openAt(long position) throws IOException {
+		InputStream in = storage.openStream(fileName);
+		try {
+			long skipped = 0;
+			while (skipped < position) {
+				long n = in.skip(position - skipped);
+				if (n <= 0) {
+					// skip may stop early without being at the end
+					if (in.read() < 0) {
+						throw new EOFException();
+					}
+					n = 1;
+				}
+				skipped += n;
+			}
+			return in;
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Fills a heap buffer from a stream.
+	 */
+	private static void fill(InputStream in, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+			if (read < 0) {
+				throw new EOFException();
+			}
+			buffer.position(buffer.position() + read);
+		}
 	}
-}
\ No newline at end of file
+}
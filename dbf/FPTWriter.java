@@ -0,0 +1,135 @@
+/**
+ * FPTWriter writes the .fpt file of a table written by a DBFWriter.
+ * Memos are appended one after the other, each starting on a new block, into
+ * a buffer that is written out whenever it is full. The header, holding the
+ * next free block, is written again when the file is closed.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+class FPTWriter implements Closeable {
+	static final int DEFAULT_BLOCK_SIZE = 64;
+	private static final int HEADER_SIZE = 512;
+	// block signatures
+	private static final int PICTURE = 0;
+	private static final int TEXT = 1;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private FileChannel channel;
+	private int blockSize;
+	private int nextBlock;
+	// memos not yet written out
+	private ByteBuffer buffer;
+
+	/**
+	 * Creates a memo file, replacing any file with the same name.
+	 *
+	 * @param fileName
+	 * @param newBlockSize
+	 *            the size of the blocks memos are aligned to
+	 * @throws IOException
+	 */
+	FPTWriter(String fileName, int newBlockSize) throws IOException {
+		if (newBlockSize < 1 || newBlockSize > 0xffff) {
+			throw new IllegalArgumentException("Block size " + newBlockSize);
+		}
+		blockSize = newBlockSize;
+		// the header fills whole blocks, memos start after it
+		nextBlock = (HEADER_SIZE + blockSize - 1) / blockSize;
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, blockSize));
+		buffer.put(new byte[nextBlock * blockSize]);
+	}
+
+	/**
+	 * Appends a text memo.
+	 *
+	 * @return the block number of the memo
+	 * @throws IOException
+	 */
+	int writeText(byte[] text) throws IOException {
+		return write(TEXT, ByteBuffer.wrap(text));
+	}
+
+	/**
+	 * Appends a picture, or any other binary memo.
+	 *
+	 * @return the block number of the memo
+	 * @throws IOException
+	 */
+	int writeBytes(ByteBuffer bytes) throws IOException {
+		return write(PICTURE, bytes.duplicate());
+	}
+
+	private int write(int signature, ByteBuffer memo) throws IOException {
+		int block = nextBlock;
+		int size = 8 + memo.remaining();
+		int blocks = (size + blockSize - 1) / blockSize;
+		if (buffer.remaining() < 8) {
+			flush();
+		}
+		buffer.putInt(signature);
+		buffer.putInt(memo.remaining());
+		// a memo bigger than the buffer is written a buffer at a time
+		while (memo.hasRemaining()) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int n = Math.min(buffer.remaining(), memo.remaining());
+			ByteBuffer part = memo.duplicate();
+			part.limit(part.position() + n);
+			buffer.put(part);
+			memo.position(memo.position() + n);
+		}
+		// pad up to the next block
+		for (int padding = blocks * blockSize - size; padding > 0; padding--) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			buffer.put((byte) 0);
+		}
+		nextBlock += blocks;
+		return block;
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the memos still in the buffer and the header.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		try {
+			flush();
+			// big endian, unlike the .dbf file
+			ByteBuffer header = ByteBuffer.allocate(8);
+			header.putInt(0, nextBlock);
+			header.putShort(6, (short) blockSize);
+			channel.write(header, 0);
+		} finally {
+			channel.close();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/**
+ * Describes a field(column) of a DBF table as found in the field
+ * descriptors of the header.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+public class Field {
+	private String name;
+	private char type;
+	private int offset;
+	private int length;
+	private int decimals;
+
+	Field(String newName, char newType, int newOffset, int newLength, int newDecimals) {
+		name = newName;
+		type = newType;
+		offset = newOffset;
+		length = newLength;
+		decimals = newDecimals;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public char getType() {
+		return type;
+	}
+
+	/**
+	 * @return the position of the field inside a record, counting the
+	 *         delete-flag byte
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getDecimals() {
+		return decimals;
+	}
+
+	/**
+	 * @return whether the field holds the block number of a memo: a Memo, a
+	 *         Picture, or a General or Blob field of Visual FoxPro, where
+	 *         pictures are kept
+	 */
+	boolean isMemo() {
+		return type == 'M' || type == 'P' || type == 'G' || type == 'W';
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Header holds what is found at the start of a .dbf file: the number of
+ * records, where they start, how big they are and the description of every
+ * field.
+ * It is shared by all the classes of this package reading a DBF file.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+class Header {
+	// size of the fixed part of the header and of each field descriptor
+	static final int BLOCK_SIZE = 32;
+	private static final int TERMINATOR = 0x0D;
+	// the first byte of a deleted record, live ones start with a blank
+	private static final byte DELETED = '*';
+
+	private int numRecords;
+	private int firstRecord;
+	private int recordSize;
+	private int codePageMark;
+	private TextDecoder decoder;
+	private Field[] fields;
+	private Map<String, Field> fieldMap = new HashMap<String, Field>();
+
+	/**
+	 * Reads a header from a stream, leaving it positioned on the first record.
+	 *
+	 * @param stream
+	 *            a stream positioned at the start of the file
+	 * @return the header read
+	 * @throws IOException
+	 */
+	static Header read(DataInputStream stream) throws IOException {
+		byte[] prefix = new byte[BLOCK_SIZE];
+		stream.readFully(prefix);
+		int first = ByteBuffer.wrap(prefix).order(ByteOrder.LITTLE_ENDIAN)
+				.getShort(8) & 0xffff;
+		byte[] header = new byte[Math.max(first, BLOCK_SIZE)];
+		System.arraycopy(prefix, 0, header, 0, BLOCK_SIZE);
+		stream.readFully(header, BLOCK_SIZE, header.length - BLOCK_SIZE);
+		return read(ByteBuffer.wrap(header));
+	}
+
+	/**
+	 * Reads a header from a buffer holding at least the whole header.
+	 *
+	 * @param buffer
+	 *            a buffer whose position is the start of the file
+	 * @return the header read
+	 * @throws IOException
+	 */
+	static Header read(ByteBuffer buffer) throws IOException {
+		ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int base = b.position();
+		if (b.remaining() < BLOCK_SIZE) {
+			throw new IOException("DBF header truncated");
+		}
+		Header h = new Header();
+		// 1 byte: file type, 3 bytes: last updated YYMMDD
+		h.numRecords = b.getInt(base + 4);
+		h.firstRecord = b.getShort(base + 8) & 0xffff;
+		h.recordSize = b.getShort(base + 10) & 0xffff;
+		// 16 bytes reserved, 1 byte table flags
+		h.codePageMark = b.get(base + 29) & 0xff;
+		h.decoder = TextDecoder.forCodePage(h.codePageMark);
+		// 2 bytes reserved
+
+		// read fields description, up to the header record terminator
+		int maxFields = (h.firstRecord - BLOCK_SIZE) / BLOCK_SIZE;
+		Field[] found = new Field[Math.max(maxFields, 0)];
+		int numFields = 0;
+		int offset = 1; // the delete-flag byte comes first
+		for (int pos = base + BLOCK_SIZE; numFields < found.length
+				&& (b.get(pos) & 0xff) != TERMINATOR; pos += BLOCK_SIZE) {
+			byte[] name = new byte[11];
+			b.position(pos);
+			b.get(name);
+			char type = (char) (b.get(pos + 11) & 0xff);
+			// 4 bytes: field displacement, not always filled in
+			int length = b.get(pos + 16) & 0xff;
+			int decimals = b.get(pos + 17) & 0xff;
+			// 1 byte field flags, 13 bytes reserved
+			found[numFields++] = new Field(new String(name, "ISO-8859-1").trim(),
+					type, offset, length, decimals);
+			offset += length;
+		}
+		h.fields = new Field[numFields];
+		System.arraycopy(found, 0, h.fields, 0, numFields);
+		for (Field f : h.fields) {
+			h.fieldMap.put(f.getName(), f);
+		}
+		if (h.recordSize == 0) {
+			h.recordSize = offset;
+		}
+		return h;
+	}
+
+	/**
+	 * @return whether the table relies on a .fpt file for its memo fields
+	 */
+	boolean hasMemo() {
+		for (Field f : fields) {
+			if (f.isMemo()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param buf
+	 *            the buffer holding the record
+	 * @param record
+	 *            where the record starts in the buffer
+	 * @return whether the record is flagged as deleted
+	 */
+	static boolean isDeleted(byte[] buf, int record) {
+		return buf[record] == DELETED;
+	}
+
+	/**
+	 * @return the position of a record in the file
+	 */
+	int getRecordPosition(int row) {
+		return firstRecord + row * recordSize;
+	}
+
+	/**
+	 * Checks that a file is long enough for all the records the header
+	 * declares.
+	 *
+	 * @param fileSize
+	 *            the size of the file
+	 * @throws IOException
+	 */
+	void checkSize(long fileSize) throws IOException {
+		if (firstRecord + (long) numRecords * recordSize > fileSize) {
+			throw new IOException("DBF file shorter than declared in its header");
+		}
+	}
+
+	int getNumRecords() {
+		return numRecords;
+	}
+
+	int getFirstRecord() {
+		return firstRecord;
+	}
+
+	int getRecordSize() {
+		return recordSize;
+	}
+
+	int getCodePageMark() {
+		return codePageMark;
+	}
+
+	/**
+	 * @return the decoder of the text of the table, chosen by its code page
+	 */
+	TextDecoder getDecoder() {
+		return decoder;
+	}
+
+	Field[] getFields() {
+		return fields;
+	}
+
+	/**
+	 * @param name
+	 *            the name of the field
+	 * @return the field with the given name or null if there isn't one
+	 */
+	Field getField(String name) {
+		return fieldMap.get(name);
+	}
+}
@@ -0,0 +1,492 @@
+/**
+ * Index finds the records of a table by the value of one of its fields
+ * without loading the table, reading a sidecar file written next to the .dbf
+ * file, named after the table and the field: GTEST.PRODID.idx for the field
+ * PRODID of GTEST.dbf.
+ * The file holds the values of the field of every record that is not deleted,
+ * sorted, each followed by the row of its record, so that ranges of values
+ * are found with a binary search. A sparse index, the first value of every
+ * block of values, is searched first, so that only one block of the sorted
+ * values is touched. Values looked up exactly are found in a hash table
+ * holding the position of the first record of each value.
+ * The file is mapped in memory when it is opened. It records the size and
+ * last modified time of the .dbf file it was built from, and it is built
+ * again when they don't match those of the .dbf file any more.
+ * Values are kept as the bytes of the field, so they are ordered as Character
+ * fields are in single-byte code pages, and Numeric fields of a given length
+ * or Date fields are in numeric order, except for negative numbers.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class Index {
+	// "CXIX" read as a little endian int
+	private static final int MAGIC = 0x58495843;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	// the sorted values between two entries of the sparse index
+	private static final int BLOCK_KEYS = 128;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// the keys sorted by insertion before they are merged
+	private static final int SORT_RUN = 32;
+
+	private ByteBuffer buffer;
+	private TextDecoder decoder;
+	private char type;
+	private int numKeys;
+	private int keyLength;
+	private int entrySize;
+	private int numBlocks;
+	private int hashSlots;
+	// positions of the parts of the file
+	private int blocksStart;
+	private int hashStart;
+
+	private Index(ByteBuffer newBuffer) {
+		buffer = newBuffer;
+		numKeys = buffer.getInt(28);
+		keyLength = buffer.getInt(32);
+		hashSlots = buffer.getInt(40);
+		type = (char) buffer.get(56);
+		decoder = TextDecoder.forCodePage(buffer.get(55) & 0xff);
+		entrySize = keyLength + 4;
+		numBlocks = (numKeys + BLOCK_KEYS - 1) / BLOCK_KEYS;
+		blocksStart = HEADER_SIZE + numKeys * entrySize;
+		hashStart = blocksStart + numBlocks * keyLength;
+	}
+
+	/**
+	 * Opens the index of a field of a table, building it if there is none or
+	 * if the table changed since it was built.
+	 *
+	 * @param baseName
+	 *            the name of the table without the extension
+	 * @param column
+	 *            the name of the field, of type C, N, F or D
+	 * @return the index
+	 * @throws IOException
+	 */
+	public static Index open(String baseName, String column) throws IOException {
+		return open(Storage.LOCAL, baseName, column);
+	}
+
+	/**
+	 * Opens the index of a field of a table found in a storage, building it if
+	 * there is none or if the table changed since it was built.
+	 * Only tables of the local file system can be indexed, as the index is
+	 * written next to them.
+	 *
+	 * @param storage
+	 *            where the table is
+	 * @param baseName
+	 *            the name of the table without the extension
+	 * @param column
+	 *            the name of the field, of type C, N, F or D
+	 * @return the index
+	 * @throws IOException
+	 */
+	public static Index open(Storage storage, String baseName, String column)
+			throws IOException {
+		Path dbf = localPath(storage, baseName);
+		Path file = indexPath(dbf, column);
+		if (Files.exists(file)) {
+			ByteBuffer buffer = map(file);
+			if (isValid(buffer, dbf, column)) {
+				return new Index(buffer);
+			}
+		}
+		build(storage, baseName, column);
+		return new Index(map(file));
+	}
+
+	/**
+	 * Builds the index of a field of a table, replacing any previous one.
+	 *
+	 * @param storage
+	 *            where the table is
+	 * @param baseName
+	 *            the name of the table without the extension
+	 * @param column
+	 *            the name of the field, of type C, N, F or D
+	 * @throws IOException
+	 *             also if the index would be larger than 2GB, which can't be
+	 *             mapped
+	 */
+	public static void build(Storage storage, String baseName, String column)
+			throws IOException {
+		Path dbf = localPath(storage, baseName);
+		// the size and time are those of the file being read
+		long size = Files.size(dbf);
+		long modified = Files.getLastModifiedTime(dbf).toMillis();
+		final ByteBuffer table = storage.map(storage.find(baseName, "dbf"));
+		Header header = Header.read(table);
+		header.checkSize(table.capacity());
+		Field field = header.getField(column);
+		if (field == null) {
+			throw new IllegalArgumentException("No such field: " + column);
+		}
+		if ("CNFD".indexOf(field.getType()) < 0) {
+			throw new IllegalArgumentException("Field " + column + " of type "
+					+ field.getType() + " can't be indexed");
+		}
+		int keyLength = field.getLength();
+		// the values of the records that are not deleted, in row order
+		int numRecords = header.getNumRecords();
+		int[] rows = new int[numRecords];
+		int numKeys = 0;
+		for (int r = 0; r < numRecords; r++) {
+			if (table.get(header.getRecordPosition(r)) != '*') {
+				rows[numKeys++] = r;
+			}
+		}
+		long slots = Long.highestOneBit(Math.max(numKeys, 1) * 2L - 1) << 1;
+		long fileSize = HEADER_SIZE + (long) numKeys * (keyLength + 4)
+				+ (numKeys + BLOCK_KEYS - 1L) / BLOCK_KEYS * keyLength + slots * 4;
+		if (fileSize > Integer.MAX_VALUE) {
+			// the file couldn't be mapped
+			throw new IOException("The index of " + column + " would take " + fileSize
+					+ " bytes, more than " + Integer.MAX_VALUE);
+		}
+		byte[] keys = new byte[numKeys * keyLength];
+		for (int k = 0; k < numKeys; k++) {
+			ByteBuffer record = table.duplicate();
+			record.position(header.getRecordPosition(rows[k]) + field.getOffset());
+			record.get(keys, k * keyLength, keyLength);
+		}
+		int[] order = sort(keys, keyLength, numKeys);
+		int hashSlots = (int) slots;
+		int[] hash = new int[hashSlots];
+		for (int i = 0; i < numKeys; i++) {
+			int k = order[i];
+			if (i > 0 && compareKeys(keys, k * keyLength, keys, order[i - 1] * keyLength,
+					keyLength) == 0) {
+				continue;
+			}
+			// only the first of equal values is in the hash table
+			int slot = hash(keys, k * keyLength, keyLength) & hashSlots - 1;
+			while (hash[slot] != 0) {
+				slot = slot + 1 & hashSlots - 1;
+			}
+			hash[slot] = i + 1;
+		}
+
+		Path file = indexPath(dbf, column);
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer out = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE,
+					HEADER_SIZE + keyLength + 4)).order(ByteOrder.LITTLE_ENDIAN);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putLong(size);
+			out.putLong(modified);
+			out.putInt(numRecords);
+			out.putInt(numKeys);
+			out.putInt(keyLength);
+			out.putInt(BLOCK_KEYS);
+			out.putInt(hashSlots);
+			out.put(columnName(column));
+			out.put((byte) header.getCodePageMark());
+			out.put((byte) field.getType());
+			out.position(HEADER_SIZE);
+			for (int i = 0; i < numKeys; i++) {
+				if (out.remaining() < keyLength + 4) {
+					flush(channel, out);
+				}
+				out.put(keys, order[i] * keyLength, keyLength);
+				out.putInt(rows[order[i]]);
+			}
+			for (int i = 0; i < numKeys; i += BLOCK_KEYS) {
+				if (out.remaining() < keyLength) {
+					flush(channel, out);
+				}
+				out.put(keys, order[i] * keyLength, keyLength);
+			}
+			for (int slot : hash) {
+				if (out.remaining() < 4) {
+					flush(channel, out);
+				}
+				out.putInt(slot);
+			}
+			flush(channel, out);
+		} finally {
+			channel.close();
+		}
+		// an index is never seen half written
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the number of records indexed, those that are not deleted
+	 */
+	public int getNumKeys() {
+		return numKeys;
+	}
+
+	/**
+	 * Finds the records whose field has a value.
+	 *
+	 * @param value
+	 *            the value looked for, as it would be read from the table, or
+	 *            null for blank fields
+	 * @return the rows of the records, in row order
+	 */
+	public int[] find(String value) {
+		byte[] key = key(value);
+		if (key == null) {
+			return new int[0];
+		}
+		int slot = hash(key, 0, keyLength) & hashSlots - 1;
+		while (true) {
+			int entry = buffer.getInt(hashStart + slot * 4) - 1;
+			if (entry < 0) {
+				return new int[0];
+			}
+			if (compare(entry, key) == 0) {
+				int end = entry + 1;
+				while (end < numKeys && compare(end, key) == 0) {
+					end++;
+				}
+				return rows(entry, end);
+			}
+			slot = slot + 1 & hashSlots - 1;
+		}
+	}
+
+	/**
+	 * Finds the records whose field has a value in a range.
+	 *
+	 * @param from
+	 *            the lowest value found, or null for no lower bound
+	 * @param to
+	 *            the value above the highest value found, or null for no upper
+	 *            bound
+	 * @return the rows of the records, in the order of their values
+	 */
+	public int[] range(String from, String to) {
+		int start = from == null ? 0 : lowerBound(key(from));
+		int end = to == null ? numKeys : lowerBound(key(to));
+		return rows(start, Math.max(start, end));
+	}
+
+	/**
+	 * Finds the first value not lower than a key: first the block it is in,
+	 * then its position in the block.
+	 */
+	private int lowerBound(byte[] key) {
+		if (key == null) {
+			// a value too long to be held by the field is above all of them
+			return numKeys;
+		}
+		// the last block starting with a value lower than the key
+		int low = 0;
+		int high = numBlocks;
+		while (low < high) {
+			int mid = low + high >>> 1;
+			if (compareKeys(buffer, blocksStart + mid * keyLength, key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		int first = Math.max(low - 1, 0) * BLOCK_KEYS;
+		low = first;
+		high = Math.min(first + BLOCK_KEYS, numKeys);
+		while (low < high) {
+			int mid = low + high >>> 1;
+			if (compare(mid, key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int[] rows(int start, int end) {
+		int[] rows = new int[end - start];
+		for (int i = start; i < end; i++) {
+			rows[i - start] = buffer.getInt(HEADER_SIZE + i * entrySize + keyLength);
+		}
+		return rows;
+	}
+
+	/**
+	 * Lays out a value the way the field holds it: text is left aligned,
+	 * numbers are right aligned.
+	 *
+	 * @return the bytes of the field or null if the value is too long
+	 */
+	private byte[] key(String value) {
+		byte[] key = new byte[keyLength];
+		Arrays.fill(key, (byte) ' ');
+		if (value == null) {
+			return key;
+		}
+		byte[] bytes = decoder.encode(value);
+		if (bytes.length > keyLength) {
+			return null;
+		}
+		int offset = type == 'C' ? 0 : keyLength - bytes.length;
+		System.arraycopy(bytes, 0, key, offset, bytes.length);
+		return key;
+	}
+
+	private int compare(int entry, byte[] key) {
+		return compareKeys(buffer, HEADER_SIZE + entry * entrySize, key);
+	}
+
+	private int compareKeys(ByteBuffer b, int position, byte[] key) {
+		for (int i = 0; i < keyLength; i++) {
+			int c = (b.get(position + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	private static int compareKeys(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			int c = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Sorts the positions of the keys with a merge sort, which is stable: the
+	 * rows of equal values stay in row order.
+	 *
+	 * @return the position of each key, in the order of the keys
+	 */
+	private static int[] sort(byte[] keys, int keyLength, int numKeys) {
+		int[] order = new int[numKeys];
+		for (int k = 0; k < numKeys; k++) {
+			order[k] = k;
+		}
+		// short runs are sorted by insertion
+		for (int start = 0; start < numKeys; start += SORT_RUN) {
+			int end = Math.min(start + SORT_RUN, numKeys);
+			for (int i = start + 1; i < end; i++) {
+				int k = order[i];
+				int j = i;
+				while (j > start && compareKeys(keys, order[j - 1] * keyLength, keys,
+						k * keyLength, keyLength) > 0) {
+					order[j] = order[j - 1];
+					j--;
+				}
+				order[j] = k;
+			}
+		}
+		// then merged in pairs, taking from the left run on equal keys
+		int[] merged = new int[numKeys];
+		for (int width = SORT_RUN; width < numKeys; width *= 2) {
+			for (int start = 0; start < numKeys; start += 2 * width) {
+				int middle = Math.min(start + width, numKeys);
+				int end = Math.min(start + 2 * width, numKeys);
+				int a = start;
+				int b = middle;
+				for (int i = start; i < end; i++) {
+					if (b >= end || a < middle && compareKeys(keys, order[a] * keyLength,
+							keys, order[b] * keyLength, keyLength) <= 0) {
+						merged[i] = order[a++];
+					} else {
+						merged[i] = order[b++];
+					}
+				}
+			}
+			int[] swap = order;
+			order = merged;
+			merged = swap;
+		}
+		return order;
+	}
+
+	/**
+	 * FNV-1a, spread so that the low bits used as the slot depend on every
+	 * byte.
+	 */
+	private static int hash(byte[] key, int offset, int length) {
+		int h = 0x811c9dc5;
+		for (int i = offset; i < offset + length; i++) {
+			h = (h ^ key[i] & 0xff) * 0x01000193;
+		}
+		return h ^ h >>> 16;
+	}
+
+	private static boolean isValid(ByteBuffer buffer, Path dbf, String column)
+			throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+				|| buffer.getInt(4) != VERSION
+				|| buffer.getLong(8) != Files.size(dbf)
+				|| buffer.getLong(16) != Files.getLastModifiedTime(dbf).toMillis()) {
+			return false;
+		}
+		ByteBuffer name = buffer.duplicate();
+		name.position(44);
+		byte[] stored = new byte[11];
+		name.get(stored);
+		if (!Arrays.equals(stored, columnName(column))) {
+			return false;
+		}
+		long numKeys = buffer.getInt(28);
+		long keyLength = buffer.getInt(32);
+		long expected = HEADER_SIZE + numKeys * (keyLength + 4)
+				+ (numKeys + BLOCK_KEYS - 1) / BLOCK_KEYS * keyLength
+				+ buffer.getInt(40) * 4L;
+		return buffer.getInt(36) == BLOCK_KEYS && buffer.capacity() == expected;
+	}
+
+	private static byte[] columnName(String column) {
+		return Arrays.copyOf(column.getBytes(TextDecoder.DEFAULT.getCharset()), 11);
+	}
+
+	private static Path localPath(Storage storage, String baseName) throws IOException {
+		Path dbf = storage.localPath(storage.find(baseName, "dbf"));
+		if (dbf == null) {
+			throw new IOException(baseName + " is not on the local file system");
+		}
+		return dbf;
+	}
+
+	private static Path indexPath(Path dbf, String column) {
+		String name = dbf.getFileName().toString();
+		name = name.substring(0, name.length() - ".dbf".length());
+		return dbf.resolveSibling(name + "." + column + ".idx");
+	}
+
+	private static ByteBuffer map(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+					.order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * IntColumn holds the values of a Numeric column without decimals, or of an
+ * Integer column.
+ * A column with few distinct values is stored as a dictionary of those
+ * values and a one byte code per row, otherwise as one int per row.
+ * Blank cells of a Numeric column are null, and read as 0.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.util.BitSet;
+
+class IntColumn extends Column {
+	private int[] values;
+	// null unless the column is a dictionary
+	private byte[] codes;
+	private BitSet nulls;
+
+	/**
+	 * Builds an IntColumn from the values of every row.
+	 */
+	static class Builder extends Column.Builder {
+		private int[] values;
+		private long[] nulls;
+
+		Builder(Field field, int numRecords) {
+			super(field);
+			values = new int[numRecords];
+			nulls = new long[(numRecords + 63) / 64];
+		}
+
+		@Override
+		void set(int row, byte[] record) {
+			Field field = getField();
+			if (field.getType() == 'I') {
+				values[row] = Numbers.readInt(record, field.getOffset());
+			} else if (Numbers.isBlank(record, field.getOffset(), field.getLength())) {
+				setBit(nulls, row);
+			} else {
+				values[row] = Numbers.parseInt(record, field.getOffset(), field.getLength());
+			}
+		}
+
+		/**
+		 * @return a dictionary column if the values have few distinct values,
+		 *         a plain one otherwise
+		 */
+		@Override
+		IntColumn build() {
+			IntColumn dictionary = buildDictionary();
+			if (dictionary != null) {
+				return dictionary;
+			}
+			return new IntColumn(getField(), values, null, BitSet.valueOf(nulls));
+		}
+
+		private IntColumn buildDictionary() {
+			int max = CharColumn.MAX_DICTIONARY_SIZE;
+			// open addressing table of codes + 1, twice the dictionary size
+			int[] table = new int[max * 2];
+			int[] dictionary = new int[max];
+			byte[] rowCodes = new byte[values.length];
+			int count = 0;
+			for (int row = 0; row < values.length; row++) {
+				int v = values[row];
+				int slot = (v ^ (v >>> 16)) * 0x9E3779B1 >>> 23;
+				while (table[slot] != 0 && dictionary[table[slot] - 1] != v) {
+					slot = (slot + 1) & (table.length - 1);
+				}
+				if (table[slot] == 0) {
+					if (count == max) {
+						return null;
+					}
+					dictionary[count++] = v;
+					table[slot] = count;
+				}
+				rowCodes[row] = (byte) (table[slot] - 1);
+			}
+			if (count * 2 > values.length) {
+				// values hardly repeat, a dictionary would save nothing
+				return null;
+			}
+			int[] trimmed = new int[count];
+			System.arraycopy(dictionary, 0, trimmed, 0, count);
+			return new IntColumn(getField(), trimmed, rowCodes, BitSet.valueOf(nulls));
+		}
+	}
+
+	private IntColumn(Field field, int[] newValues, byte[] newCodes, BitSet newNulls) {
+		super(field);
+		values = newValues;
+		codes = newCodes;
+		nulls = newNulls;
+	}
+
+	/**
+	 * @return whether the column is stored as a dictionary
+	 */
+	boolean isDictionary() {
+		return codes != null;
+	}
+
+	@Override
+	boolean isNull(int row) {
+		return nulls.get(row);
+	}
+
+	@Override
+	int getInt(int row) {
+		if (codes != null) {
+			return values[codes[row] & 0xff];
+		}
+		return values[row];
+	}
+
+	@Override
+	long getLong(int row) {
+		return getInt(row);
+	}
+
+	@Override
+	double getDouble(int row) {
+		return getInt(row);
+	}
+
+	/**
+	 * Finds the rows whose cell is equal to a value. A dictionary column
+	 * looks the value up once, then only compares codes. Null cells are never
+	 * found.
+	 *
+	 * @param value
+	 *            the value looked for
+	 * @param rows
+	 *            where the rows found are set
+	 */
+	@Override
+	void select(int value, BitSet rows) {
+		if (codes != null) {
+			for (int code = 0; code < values.length; code++) {
+				if (values[code] == value) {
+					byte c = (byte) code;
+					for (int row = 0; row < codes.length; row++) {
+						if (codes[row] == c && !nulls.get(row)) {
+							rows.set(row);
+						}
+					}
+					return;
+				}
+			}
+			return;
+		}
+		for (int row = 0; row < values.length; row++) {
+			if (values[row] == value && !nulls.get(row)) {
+				rows.set(row);
+			}
+		}
+	}
+}
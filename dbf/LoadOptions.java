@@ -0,0 +1,50 @@
+/**
+ * Options changing the way a DBF object loads a table.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class LoadOptions {
+	private boolean parallel;
+	// null to load all the fields
+	private Set<String> fields;
+
+	/**
+	 * @param state
+	 *            whether the records are decoded by several threads, each
+	 *            decoding a range of rows. The table loaded is the same.
+	 */
+	public void setParallel(boolean state) {
+		parallel = state;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Restricts the fields loaded. The bytes of the other fields are skipped
+	 * without being decoded and their memos are never read.
+	 *
+	 * @param names
+	 *            the names of the fields to load
+	 */
+	public void setFields(String... names) {
+		fields = new HashSet<String>(Arrays.asList(names));
+	}
+
+	/**
+	 * @param name
+	 *            the name of a field
+	 * @return whether the field is to be loaded
+	 */
+	public boolean isLoaded(String name) {
+		return fields == null || fields.contains(name);
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ * LongColumn holds the values of a column whose values need a long:
+ * a Numeric column too wide for an int, a Currency column, in ten-thousandths,
+ * a Date column, in days since 1970-01-01, or a DateTime column, in
+ * milliseconds since 1970-01-01T00:00.
+ * A Numeric column can also be read as int, as long as its values fit.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.util.BitSet;
+
+class LongColumn extends Column {
+	private long[] values;
+	private BitSet nulls;
+
+	static class Builder extends Column.Builder {
+		private long[] values;
+		private long[] nulls;
+
+		Builder(Field field, int numRecords) {
+			super(field);
+			values = new long[numRecords];
+			nulls = new long[(numRecords + 63) / 64];
+		}
+
+		@Override
+		void set(int row, byte[] record) {
+			Field field = getField();
+			int offset = field.getOffset();
+			switch (field.getType()) {
+			case 'D':
+				if (Numbers.isBlank(record, offset, 8)) {
+					setBit(nulls, row);
+				} else {
+					values[row] = Numbers.parseDate(record, offset);
+				}
+				break;
+			case 'T':
+				if (Numbers.readLong(record, offset) == 0) {
+					setBit(nulls, row);
+				} else {
+					values[row] = Numbers.readDateTime(record, offset);
+				}
+				break;
+			case 'Y':
+				values[row] = Numbers.readLong(record, offset);
+				break;
+			default:
+				if (Numbers.isBlank(record, offset, field.getLength())) {
+					setBit(nulls, row);
+				} else {
+					values[row] = Numbers.parseLong(record, offset, field.getLength());
+				}
+			}
+		}
+
+		@Override
+		LongColumn build() {
+			return new LongColumn(getField(), values, BitSet.valueOf(nulls));
+		}
+	}
+
+	private LongColumn(Field field, long[] newValues, BitSet newNulls) {
+		super(field);
+		values = newValues;
+		nulls = newNulls;
+	}
+
+	@Override
+	boolean isNull(int row) {
+		return nulls.get(row);
+	}
+
+	@Override
+	long getLong(int row) {
+		return values[row];
+	}
+
+	/**
+	 * @throws NumberFormatException
+	 *             if the value doesn't fit in an int
+	 */
+	@Override
+	int getInt(int row) {
+		if (getField().getType() != 'N') {
+			return super.getInt(row);
+		}
+		long value = values[row];
+		if (value != (int) value) {
+			throw new NumberFormatException("Value " + value + " of field "
+					+ getField().getName() + " doesn't fit in an int");
+		}
+		return (int) value;
+	}
+
+	@Override
+	void select(int value, BitSet rows) {
+		if (getField().getType() != 'N') {
+			super.select(value, rows);
+			return;
+		}
+		for (int row = 0; row < values.length; row++) {
+			if (values[row] == value && !nulls.get(row)) {
+				rows.set(row);
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * MappedDBF gives access to a .dbf file by memory-mapping it.
+ * Unlike DBF nothing is decoded when the file is opened: the position of a
+ * cell is computed from the header's first record offset and record size,
+ * and the cell is decoded only when it is read.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class MappedDBF implements Table {
+	private ByteBuffer buffer;
+	private Header header;
+	private FPT fpt;
+
+	/**
+	 * Maps a DBF file and reads its header.
+	 *
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @throws IOException
+	 */
+	public MappedDBF(String baseName) throws IOException {
+		this(Storage.LOCAL, baseName);
+	}
+
+	/**
+	 * Maps a DBF file found in a storage and reads its header. A file that is
+	 * not on the local file system is read into memory instead.
+	 *
+	 * @param storage
+	 *            where the file is
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @throws IOException
+	 */
+	public MappedDBF(Storage storage, String baseName) throws IOException {
+		buffer = storage.map(storage.find(baseName, "dbf"));
+		header = Header.read(buffer);
+		header.checkSize(buffer.capacity());
+		if (header.hasMemo()) {
+			fpt = new FPT(storage, storage.find(baseName, "fpt"), header.getDecoder());
+		}
+	}
+
+	@Override
+	public int getNumRecords() {
+		return header.getNumRecords();
+	}
+
+	@Override
+	public int getNumFields() {
+		return header.getFields().length;
+	}
+
+	@Override
+	public boolean isDeleted(int row) {
+		if (row < 0 || row >= header.getNumRecords()) {
+			throw new IndexOutOfBoundsException("Row " + row);
+		}
+		return buffer.get(header.getRecordPosition(row)) == '*';
+	}
+
+	/**
+	 * Decodes the number straight from the bytes of the cell, 0 if it is
+	 * blank. Numeric fields with decimals must hold a whole number.
+	 */
+	@Override
+	public int readInt(int row, String column) {
+		Field field = field(column);
+		byte[] bytes = readBytes(row, field);
+		if (field.getType() == 'I') {
+			return Numbers.readInt(bytes, 0);
+		}
+		if (field.getDecimals() == 0) {
+			return Numbers.parseInt(bytes, 0, bytes.length);
+		}
+		double value = Numbers.parseDouble(bytes, 0, bytes.length);
+		if (value != (int) value) {
+			throw new NumberFormatException("Value " + value + " of field "
+					+ field.getName() + " is not an int");
+		}
+		return (int) value;
+	}
+
+	@Override
+	public String readString(int row, String column) {
+		Field field = field(column);
+		if (field.isMemo()) {
+			Memo memo = readMemo(row, column);
+			return memo == null ? null : memo.toString();
+		}
+		return readText(row, field);
+	}
+
+	@Override
+	public Memo readMemo(int row, String column) {
+		byte[] bytes = readBytes(row, field(column));
+		int block = Numbers.readBlock(bytes, 0, bytes.length);
+		return block == 0 ? null : new Memo(fpt, block);
+	}
+
+	/**
+	 * Releases the memo file, if the table has one.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (fpt != null) {
+			fpt.close();
+		}
+	}
+
+	private Field field(String column) {
+		Field field = header.getField(column);
+		if (field == null) {
+			throw new IllegalArgumentException("No such field: " + column);
+		}
+		return field;
+	}
+
+	/**
+	 * @return a copy of the bytes of a cell
+	 */
+	private byte[] readBytes(int row, Field field) {
+		if (row < 0 || row >= header.getNumRecords()) {
+			throw new IndexOutOfBoundsException("Row " + row);
+		}
+		byte[] bytes = new byte[field.getLength()];
+		ByteBuffer cell = buffer.duplicate();
+		cell.position(header.getRecordPosition(row) + field.getOffset());
+		cell.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Decodes a cell straight from the mapped file.
+	 *
+	 * @return the trimmed text of the cell or null if it is blank
+	 */
+	private String readText(int row, Field field) {
+		if (row < 0 || row >= header.getNumRecords()) {
+			throw new IndexOutOfBoundsException("Row " + row);
+		}
+		int start = header.getRecordPosition(row) + field.getOffset();
+		int end = start + field.getLength();
+		// trim the same characters as String.trim() does
+		while (start < end && (buffer.get(start) & 0xff) <= ' ') {
+			start++;
+		}
+		while (end > start && (buffer.get(end - 1) & 0xff) <= ' ') {
+			end--;
+		}
+		if (start == end) {
+			return null;
+		}
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return header.getDecoder().decodeTrimmed(bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * A handle to the text of a memo field, or to the bytes of a picture field.
+ * Only the block number of the memo is kept: the text is read from the .fpt
+ * file the first time it is needed and is then held by the shared MemoCache,
+ * which may drop it again to stay within its budget.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+public class Memo implements CharSequence {
+	private FPT fpt;
+	private int blockNumber;
+
+	Memo(FPT newFpt, int newBlockNumber) {
+		fpt = newFpt;
+		blockNumber = newBlockNumber;
+	}
+
+	FPT getFPT() {
+		return fpt;
+	}
+
+	/**
+	 * @return the block the memo starts at in its file
+	 */
+	public int getBlockNumber() {
+		return blockNumber;
+	}
+
+	/**
+	 * @return the file the memo is found in
+	 */
+	public MemoFile getFile() {
+		return new MemoFile(fpt);
+	}
+
+	/**
+	 * @return the text of the memo
+	 * @throws UncheckedIOException
+	 *             if the memo file can't be read
+	 */
+	@Override
+	public String toString() {
+		try {
+			return MemoCache.getShared().get(this);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads the bytes of the memo, as needed for a picture. They are not
+	 * copied, nor held by the MemoCache, unless the .fpt file is in an
+	 * archive, which can't be mapped.
+	 *
+	 * @return a read-only buffer sharing the memory the .fpt file is mapped to
+	 * @throws IOException
+	 */
+	public ByteBuffer getBytes() throws IOException {
+		return fpt.getBytes(blockNumber);
+	}
+
+	@Override
+	public int length() {
+		return toString().length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return toString().charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(fpt) * 31 + blockNumber;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof Memo &&
+				((Memo) o).fpt == this.fpt &&
+				((Memo) o).blockNumber == this.blockNumber);
+	}
+}
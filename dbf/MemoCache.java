@@ -0,0 +1,134 @@
+/**
+ * MemoCache holds the text of the memos that have been read, up to a
+ * maximum number of bytes shared by all the tables.
+ * It is a segmented LRU: a memo read for the first time enters a probation
+ * segment and moves to a protected segment when it is read again, so that
+ * memos read often are not evicted by a scan of memos read only once.
+ * The least recently used memo of the probation segment is evicted first.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MemoCache {
+	// approximate cost of the String, of the key and of the map entry
+	private static final int ENTRY_OVERHEAD = 96;
+	// the share of the budget that memos read more than once can take
+	private static final double PROTECTED_SHARE = 0.8;
+	private static final MemoCache shared = new MemoCache(
+			Long.getLong("cuxna.memoCacheBytes", 4L << 20));
+
+	private long maxBytes;
+	private long probationBytes;
+	private long protectedBytes;
+	private LinkedHashMap<Memo, String> probation = new LinkedHashMap<Memo, String>(16, 0.75f, true);
+	private LinkedHashMap<Memo, String> protectedSegment = new LinkedHashMap<Memo, String>(16, 0.75f, true);
+
+	MemoCache(long newMaxBytes) {
+		maxBytes = newMaxBytes;
+	}
+
+	/**
+	 * @return the cache used by all the memo fields
+	 */
+	public static MemoCache getShared() {
+		return shared;
+	}
+
+	/**
+	 * Changes the budget of the cache, evicting memos if it is now exceeded.
+	 *
+	 * @param newMaxBytes
+	 *            the approximate number of bytes the cached text can take
+	 */
+	public synchronized void setMaxBytes(long newMaxBytes) {
+		maxBytes = newMaxBytes;
+		evict();
+	}
+
+	/**
+	 * @return the approximate number of bytes taken by the cached text
+	 */
+	public synchronized long getBytes() {
+		return probationBytes + protectedBytes;
+	}
+
+	public synchronized void clear() {
+		probation.clear();
+		protectedSegment.clear();
+		probationBytes = 0;
+		protectedBytes = 0;
+	}
+
+	/**
+	 * Returns the text of a memo, reading it from its file if it isn't cached.
+	 *
+	 * @param memo
+	 * @return the text of the memo
+	 * @throws IOException
+	 */
+	String get(Memo memo) throws IOException {
+		String text = lookup(memo);
+		if (text == null) {
+			// read without holding the lock, other memos can still be served
+			text = memo.getFPT().getString(memo.getBlockNumber());
+			put(memo, text);
+		}
+		return text;
+	}
+
+	private synchronized String lookup(Memo memo) {
+		String text = protectedSegment.get(memo);
+		if (text == null) {
+			text = probation.remove(memo);
+			if (text != null) {
+				// second hit: promote it
+				probationBytes -= cost(text);
+				protectedSegment.put(memo, text);
+				protectedBytes += cost(text);
+				evict();
+			}
+		}
+		return text;
+	}
+
+	private synchronized void put(Memo memo, String text) {
+		if (protectedSegment.containsKey(memo) || probation.containsKey(memo)) {
+			// another thread read it in the meantime
+			return;
+		}
+		probation.put(memo, text);
+		probationBytes += cost(text);
+		evict();
+	}
+
+	private void evict() {
+		// demote the protected memos exceeding their share
+		long protectedMax = (long) (maxBytes * PROTECTED_SHARE);
+		Iterator<Map.Entry<Memo, String>> i = protectedSegment.entrySet().iterator();
+		while (protectedBytes > protectedMax && i.hasNext()) {
+			Map.Entry<Memo, String> e = i.next();
+			i.remove();
+			protectedBytes -= cost(e.getValue());
+			probation.put(e.getKey(), e.getValue());
+			probationBytes += cost(e.getValue());
+		}
+		// then drop the least recently used ones
+		i = probation.entrySet().iterator();
+		while (probationBytes + protectedBytes > maxBytes && i.hasNext()) {
+			Map.Entry<Memo, String> e = i.next();
+			i.remove();
+			probationBytes -= cost(e.getValue());
+		}
+	}
+
+	private static long cost(String text) {
+		return ENTRY_OVERHEAD + text.length();
+	}
+}
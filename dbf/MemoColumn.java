@@ -0,0 +1,58 @@
+/**
+ * MemoColumn holds the block numbers of the memos of a Memo column.
+ * The text of a memo is only read from the .fpt file when it is needed.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+class MemoColumn extends Column {
+	private FPT fpt;
+	// 0 for a blank field, block 0 being the header of the memo file
+	private int[] blocks;
+
+	static class Builder extends Column.Builder {
+		private FPT fpt;
+		private int[] blocks;
+
+		Builder(Field field, int numRecords, FPT newFpt) {
+			super(field);
+			fpt = newFpt;
+			blocks = new int[numRecords];
+		}
+
+		@Override
+		void set(int row, byte[] record) {
+			blocks[row] = Numbers.readBlock(record, getField().getOffset(),
+					getField().getLength());
+		}
+
+		@Override
+		MemoColumn build() {
+			return new MemoColumn(getField(), fpt, blocks);
+		}
+	}
+
+	private MemoColumn(Field field, FPT newFpt, int[] newBlocks) {
+		super(field);
+		fpt = newFpt;
+		blocks = newBlocks;
+	}
+
+	@Override
+	boolean isNull(int row) {
+		return blocks[row] == 0;
+	}
+
+	@Override
+	Memo getMemo(int row) {
+		return blocks[row] == 0 ? null : new Memo(fpt, blocks[row]);
+	}
+
+	@Override
+	String getString(int row) {
+		Memo memo = getMemo(row);
+		return memo == null ? null : memo.toString();
+	}
+}
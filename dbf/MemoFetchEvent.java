@@ -0,0 +1,36 @@
+/**
+ * MemoFetchEvent is recorded by the JDK Flight Recorder when a memo is read
+ * from a .fpt file.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("cuxna.MemoFetch")
+@Label("Memo Fetch")
+@Category({ "Cuxna", "DBF" })
+class MemoFetchEvent extends jdk.jfr.Event {
+	@Label("File")
+	String file;
+
+	@Label("Block")
+	int block;
+
+	@Label("Picture")
+	boolean picture;
+
+	@Label("Size")
+	@DataAmount
+	long bytes;
+
+	@Label("Seek Distance")
+	@Description("Bytes between the end of the memo read before and this one, negative going back")
+	long seekDistance;
+}
@@ -0,0 +1,75 @@
+/**
+ * MemoFile is the .fpt file of a table, seen from outside this package: it
+ * gives the handles of memos found by their block number, as kept by
+ * applications storing them elsewhere than in the table.
+ * Nothing is read when a MemoFile is opened: the memos are read when they
+ * are needed, as those read from a table.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.IOException;
+
+public final class MemoFile {
+	private FPT fpt;
+
+	MemoFile(FPT newFpt) {
+		fpt = newFpt;
+	}
+
+	/**
+	 * Opens a memo file described by a MemoFile obtained before.
+	 *
+	 * @param storage
+	 *            where the file is
+	 * @param name
+	 *            the name of the file, as given by getName
+	 * @param charset
+	 *            the charset of its text, as given by getCharset
+	 * @param blockSize
+	 *            the size of its blocks, as given by getBlockSize
+	 * @return the memo file
+	 */
+	public static MemoFile open(Storage storage, String name, String charset, int blockSize) {
+		return new MemoFile(new FPT(storage, name, TextDecoder.forCharset(charset), blockSize));
+	}
+
+	/**
+	 * @return the name of the file in its storage
+	 */
+	public String getName() {
+		return fpt.getFileName();
+	}
+
+	/**
+	 * @return the name of the charset the text of the memos is decoded with
+	 */
+	public String getCharset() {
+		return fpt.getDecoder().getCharset().name();
+	}
+
+	public int getBlockSize() {
+		return fpt.getBlockSize();
+	}
+
+	/**
+	 * Releases the file, shared by every memo of the table. It is opened again
+	 * if one of them is read afterwards.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		fpt.close();
+	}
+
+	/**
+	 * @param blockNumber
+	 *            the block the memo starts at, as given by Memo.getBlockNumber
+	 * @return the handle of the memo
+	 */
+	public Memo getMemo(int blockNumber) {
+		return new Memo(fpt, blockNumber);
+	}
+}
@@ -0,0 +1,382 @@
+/**
+ * Utility functions decoding the values of non Character fields straight
+ * from the bytes of a record, without creating intermediate objects.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.nio.charset.StandardCharsets;
+
+class Numbers {
+	// Julian day number of 1970-01-01
+	private static final long EPOCH_JULIAN_DAY = 2440588;
+	private static final long MILLIS_PER_DAY = 86400000L;
+	// powers of ten that can be represented exactly by a double
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private Numbers() {
+	}
+
+	/**
+	 * @return whether the bytes are all blanks
+	 */
+	static boolean isBlank(byte[] buf, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if ((buf[i] & 0xff) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a whole number written as text, like a Numeric field without
+	 * decimals.
+	 *
+	 * @return the number, 0 if the field is blank
+	 * @throws NumberFormatException
+	 */
+	static long parseLong(byte[] buf, int offset, int length) {
+		int i = offset;
+		int end = offset + length;
+		while (i < end && (buf[i] & 0xff) <= ' ') {
+			i++;
+		}
+		while (end > i && (buf[end - 1] & 0xff) <= ' ') {
+			end--;
+		}
+		if (i == end) {
+			return 0;
+		}
+		boolean negative = buf[i] == '-';
+		if (negative || buf[i] == '+') {
+			i++;
+		}
+		if (i == end || end - i > 18) {
+			throw error(buf, offset, length);
+		}
+		long result = 0;
+		for (; i < end; i++) {
+			int digit = buf[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw error(buf, offset, length);
+			}
+			result = result * 10 + digit;
+		}
+		return negative ? -result : result;
+	}
+
+	/**
+	 * @return the number, 0 if the field is blank
+	 * @throws NumberFormatException
+	 *             if the number is not an int
+	 */
+	static int parseInt(byte[] buf, int offset, int length) {
+		long result = parseLong(buf, offset, length);
+		if (result != (int) result) {
+			throw error(buf, offset, length);
+		}
+		return (int) result;
+	}
+
+	/**
+	 * Parses a number written as text, with decimals and possibly an
+	 * exponent, like a Float field.
+	 *
+	 * @return the number, 0 if the field is blank
+	 * @throws NumberFormatException
+	 */
+	static double parseDouble(byte[] buf, int offset, int length) {
+		int i = offset;
+		int end = offset + length;
+		while (i < end && (buf[i] & 0xff) <= ' ') {
+			i++;
+		}
+		while (end > i && (buf[end - 1] & 0xff) <= ' ') {
+			end--;
+		}
+		if (i == end) {
+			return 0;
+		}
+		int start = i;
+		boolean negative = buf[i] == '-';
+		if (negative || buf[i] == '+') {
+			i++;
+		}
+		boolean found = false;
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		for (; i < end && buf[i] != 'e' && buf[i] != 'E'; i++) {
+			if (buf[i] == '.' && !point) {
+				point = true;
+			} else if (buf[i] >= '0' && buf[i] <= '9') {
+				found = true;
+				if (digits > 0 || buf[i] != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + buf[i] - '0';
+				if (point) {
+					scale++;
+				}
+			} else {
+				throw error(buf, offset, length);
+			}
+		}
+		if (!found) {
+			throw error(buf, offset, length);
+		}
+		// not exactly representable: let the JDK round it
+		if (i < end || digits > 15 || scale >= POWERS_OF_TEN.length) {
+			return Double.parseDouble(new String(buf, start, end - start,
+					StandardCharsets.ISO_8859_1));
+		}
+		double result = mantissa / POWERS_OF_TEN[scale];
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Reads a little-endian binary int, like an Integer field.
+	 */
+	static int readInt(byte[] buf, int offset) {
+		return (buf[offset] & 0xff) | (buf[offset + 1] & 0xff) << 8
+				| (buf[offset + 2] & 0xff) << 16 | (buf[offset + 3] & 0xff) << 24;
+	}
+
+	/**
+	 * Reads the block number of a memo field: a little-endian binary int in
+	 * the 4 byte fields of Visual FoxPro tables, digits in the others.
+	 *
+	 * @return the block number, 0 if the field is blank
+	 * @throws NumberFormatException
+	 */
+	static int readBlock(byte[] buf, int offset, int length) {
+		if (length == 4) {
+			int block = readInt(buf, offset);
+			// spaces are left by some writers in blank binary fields
+			return block == 0x20202020 ? 0 : block;
+		}
+		return parseInt(buf, offset, length);
+	}
+
+	/**
+	 * Reads a little-endian binary long, like a Currency field.
+	 */
+	static long readLong(byte[] buf, int offset) {
+		return (readInt(buf, offset) & 0xffffffffL)
+				| (long) readInt(buf, offset + 4) << 32;
+	}
+
+	/**
+	 * Parses a Date field, written as YYYYMMDD.
+	 *
+	 * @return the number of days since 1970-01-01
+	 * @throws NumberFormatException
+	 */
+	static long parseDate(byte[] buf, int offset) {
+		int year = (int) parseLong(buf, offset, 4);
+		int month = (int) parseLong(buf, offset + 4, 2);
+		int day = (int) parseLong(buf, offset + 6, 2);
+		if (month < 1 || month > 12 || day < 1 || day > 31) {
+			throw error(buf, offset, 8);
+		}
+		// days from the civil calendar, with years starting in March
+		int y = month <= 2 ? year - 1 : year;
+		int era = (y >= 0 ? y : y - 399) / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
+	}
+
+	/**
+	 * Reads a DateTime field, a Julian day number followed by the
+	 * milliseconds since midnight.
+	 *
+	 * @return the milliseconds since 1970-01-01T00:00
+	 */
+	static long readDateTime(byte[] buf, int offset) {
+		long day = readInt(buf, offset);
+		long millis = readInt(buf, offset + 4);
+		return (day - EPOCH_JULIAN_DAY) * MILLIS_PER_DAY + millis;
+	}
+
+	/**
+	 * Writes a little-endian binary int, like an Integer field.
+	 */
+	static void writeInt(byte[] buf, int offset, int value) {
+		buf[offset] = (byte) value;
+		buf[offset + 1] = (byte) (value >>> 8);
+		buf[offset + 2] = (byte) (value >>> 16);
+		buf[offset + 3] = (byte) (value >>> 24);
+	}
+
+	/**
+	 * Writes a little-endian binary long, like a Currency field.
+	 */
+	static void writeLong(byte[] buf, int offset, long value) {
+		writeInt(buf, offset, (int) value);
+		writeInt(buf, offset + 4, (int) (value >>> 32));
+	}
+
+	/**
+	 * Writes a number right-aligned, with a given number of decimals, as
+	 * found in Numeric fields.
+	 *
+	 * @param unscaled
+	 *            the number multiplied by 10 to the power of decimals
+	 * @throws IllegalArgumentException
+	 *             if the number doesn't fit in the field
+	 */
+	static void formatNumber(byte[] buf, int offset, int length, long unscaled,
+			int decimals) {
+		boolean negative = unscaled < 0;
+		int pos = offset + length;
+		int digits = 0;
+		// as an unsigned number, so that Long.MIN_VALUE is written too
+		long rest = negative ? -unscaled : unscaled;
+		do {
+			if (digits == decimals && decimals > 0) {
+				buf[--pos] = '.';
+			}
+			if (pos == offset) {
+				throw new IllegalArgumentException(unscaled + " doesn't fit in "
+						+ length + " characters");
+			}
+			buf[--pos] = (byte) ('0' + Long.remainderUnsigned(rest, 10));
+			rest = Long.divideUnsigned(rest, 10);
+			digits++;
+		} while (rest != 0 || digits <= decimals);
+		if (negative) {
+			if (pos == offset) {
+				throw new IllegalArgumentException(unscaled + " doesn't fit in "
+						+ length + " characters");
+			}
+			buf[--pos] = '-';
+		}
+		while (pos > offset) {
+			buf[--pos] = ' ';
+		}
+	}
+
+	/**
+	 * Writes a Date field as YYYYMMDD.
+	 *
+	 * @param epochDay
+	 *            the number of days since 1970-01-01
+	 */
+	static void formatDate(byte[] buf, int offset, long epochDay) {
+		// the civil calendar from days, with years starting in March
+		long z = epochDay + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+				- dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < 0 || year > 9999) {
+			throw new IllegalArgumentException("Year " + year + " can't be written");
+		}
+		formatDigits(buf, offset, 4, (int) year);
+		formatDigits(buf, offset + 4, 2, month);
+		formatDigits(buf, offset + 6, 2, day);
+	}
+
+	/**
+	 * Writes a DateTime field, a Julian day number followed by the
+	 * milliseconds since midnight.
+	 *
+	 * @param millis
+	 *            the milliseconds since 1970-01-01T00:00
+	 */
+	static void writeDateTime(byte[] buf, int offset, long millis) {
+		writeInt(buf, offset, (int) (Math.floorDiv(millis, MILLIS_PER_DAY)
+				+ EPOCH_JULIAN_DAY));
+		writeInt(buf, offset + 4, (int) Math.floorMod(millis, MILLIS_PER_DAY));
+	}
+
+	private static void formatDigits(byte[] buf, int offset, int length, int value) {
+		for (int pos = offset + length - 1; pos >= offset; pos--) {
+			buf[pos] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * Decodes any numeric field as a double: a Date becomes days since
+	 * 1970-01-01, a DateTime milliseconds since 1970-01-01T00:00.
+	 *
+	 * @param field
+	 * @param buf
+	 *            the buffer holding the record
+	 * @param record
+	 *            where the record starts in the buffer
+	 * @return the value of the field
+	 * @throws NumberFormatException
+	 */
+	static double toDouble(Field field, byte[] buf, int record) {
+		int offset = record + field.getOffset();
+		switch (field.getType()) {
+		case 'I':
+			return readInt(buf, offset);
+		case 'B':
+			return Double.longBitsToDouble(readLong(buf, offset));
+		case 'Y':
+			return readLong(buf, offset) / 10000.0;
+		case 'D':
+			return parseDate(buf, offset);
+		case 'T':
+			return readDateTime(buf, offset);
+		default:
+			return parseDouble(buf, offset, field.getLength());
+		}
+	}
+
+	/**
+	 * @return whether a field of a record holds no value
+	 */
+	static boolean isNull(Field field, byte[] buf, int record) {
+		int offset = record + field.getOffset();
+		switch (field.getType()) {
+		case 'I':
+		case 'B':
+		case 'Y':
+			return false;
+		case 'T':
+			return readLong(buf, offset) == 0;
+		case 'L':
+			return !isLogical(buf[offset]);
+		default:
+			return isBlank(buf, offset, field.getLength());
+		}
+	}
+
+	/**
+	 * @return whether a Logical field is true, false for unknown values
+	 */
+	static boolean parseLogical(byte b) {
+		return b == 'T' || b == 't' || b == 'Y' || b == 'y';
+	}
+
+	/**
+	 * @return whether a Logical field holds a value
+	 */
+	static boolean isLogical(byte b) {
+		return b == 'T' || b == 't' || b == 'Y' || b == 'y'
+				|| b == 'F' || b == 'f' || b == 'N' || b == 'n';
+	}
+
+	private static NumberFormatException error(byte[] buf, int offset, int length) {
+		return new NumberFormatException("For input string: \""
+				+ new String(buf, offset, length, StandardCharsets.ISO_8859_1) + "\"");
+	}
+}
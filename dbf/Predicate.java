@@ -0,0 +1,277 @@
+/**
+ * A condition on the fields of a record, used to filter the records of a
+ * Query.
+ * Conditions are evaluated on the bytes of the records, without decoding
+ * the fields into objects.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+public abstract class Predicate {
+	/**
+	 * Resolves the names of the fields against the header of the table being
+	 * queried.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a field doesn't exist
+	 */
+	abstract void bind(Header header);
+
+	/**
+	 * @param buf
+	 *            the buffer holding the record
+	 * @param record
+	 *            where the record starts in the buffer
+	 * @return whether the record satisfies the condition
+	 */
+	abstract boolean test(byte[] buf, int record);
+
+	/**
+	 * A condition on a single field.
+	 */
+	private abstract static class FieldPredicate extends Predicate {
+		private String name;
+		Field field;
+
+		FieldPredicate(String newName) {
+			name = newName;
+		}
+
+		@Override
+		void bind(Header header) {
+			field = header.getField(name);
+			if (field == null) {
+				throw new IllegalArgumentException("No such field: " + name);
+			}
+		}
+	}
+
+	/**
+	 * Compares a field with a number; blank fields never satisfy it.
+	 */
+	private static class Comparison extends FieldPredicate {
+		private double value;
+		// the results allowed of comparing the field with the value
+		private boolean less, equal, greater;
+
+		Comparison(String name, double newValue, boolean newLess, boolean newEqual,
+				boolean newGreater) {
+			super(name);
+			value = newValue;
+			less = newLess;
+			equal = newEqual;
+			greater = newGreater;
+		}
+
+		@Override
+		boolean test(byte[] buf, int record) {
+			if (Numbers.isNull(field, buf, record)) {
+				return false;
+			}
+			double v = Numbers.toDouble(field, buf, record);
+			return v < value ? less : v > value ? greater : equal;
+		}
+	}
+
+	/**
+	 * Compares the trimmed bytes of a field with those of a string.
+	 */
+	private static class StringEquals extends FieldPredicate {
+		private String string;
+		private byte[] value;
+
+		StringEquals(String name, String newString) {
+			super(name);
+			string = newString;
+		}
+
+		/**
+		 * Encodes the string in the code page of the table.
+		 */
+		@Override
+		void bind(Header header) {
+			super.bind(header);
+			value = header.getDecoder().encode(string);
+		}
+
+		@Override
+		boolean test(byte[] buf, int record) {
+			int start = record + field.getOffset();
+			int end = start + field.getLength();
+			while (start < end && (buf[start] & 0xff) <= ' ') {
+				start++;
+			}
+			while (end > start && (buf[end - 1] & 0xff) <= ' ') {
+				end--;
+			}
+			if (end - start != value.length) {
+				return false;
+			}
+			for (int i = 0; i < value.length; i++) {
+				if (buf[start + i] != value[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class Null extends FieldPredicate {
+		Null(String name) {
+			super(name);
+		}
+
+		@Override
+		boolean test(byte[] buf, int record) {
+			return Numbers.isNull(field, buf, record);
+		}
+	}
+
+	private static class And extends Predicate {
+		private Predicate[] operands;
+
+		And(Predicate[] newOperands) {
+			operands = newOperands;
+		}
+
+		@Override
+		void bind(Header header) {
+			for (Predicate p : operands) {
+				p.bind(header);
+			}
+		}
+
+		@Override
+		boolean test(byte[] buf, int record) {
+			for (Predicate p : operands) {
+				if (!p.test(buf, record)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class Or extends Predicate {
+		private Predicate[] operands;
+
+		Or(Predicate[] newOperands) {
+			operands = newOperands;
+		}
+
+		@Override
+		void bind(Header header) {
+			for (Predicate p : operands) {
+				p.bind(header);
+			}
+		}
+
+		@Override
+		boolean test(byte[] buf, int record) {
+			for (Predicate p : operands) {
+				if (p.test(buf, record)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class Not extends Predicate {
+		private Predicate operand;
+
+		Not(Predicate newOperand) {
+			operand = newOperand;
+		}
+
+		@Override
+		void bind(Header header) {
+			operand.bind(header);
+		}
+
+		@Override
+		boolean test(byte[] buf, int record) {
+			return !operand.test(buf, record);
+		}
+	}
+
+	/**
+	 * @return a condition true when a Character field is equal to a value,
+	 *         ignoring leading and trailing blanks
+	 */
+	public static Predicate eq(String field, String value) {
+		return new StringEquals(field, value);
+	}
+
+	/**
+	 * @return a condition true when a numeric field is equal to a value
+	 */
+	public static Predicate eq(String field, double value) {
+		return new Comparison(field, value, false, true, false);
+	}
+
+	/**
+	 * @return a condition true when a numeric field is not equal to a value
+	 */
+	public static Predicate ne(String field, double value) {
+		return new Comparison(field, value, true, false, true);
+	}
+
+	/**
+	 * @return a condition true when a numeric field is less than a value
+	 */
+	public static Predicate lt(String field, double value) {
+		return new Comparison(field, value, true, false, false);
+	}
+
+	/**
+	 * @return a condition true when a numeric field is at most a value
+	 */
+	public static Predicate le(String field, double value) {
+		return new Comparison(field, value, true, true, false);
+	}
+
+	/**
+	 * @return a condition true when a numeric field is greater than a value
+	 */
+	public static Predicate gt(String field, double value) {
+		return new Comparison(field, value, false, false, true);
+	}
+
+	/**
+	 * @return a condition true when a numeric field is at least a value
+	 */
+	public static Predicate ge(String field, double value) {
+		return new Comparison(field, value, false, true, true);
+	}
+
+	/**
+	 * @return a condition true when a field holds no value
+	 */
+	public static Predicate isNull(String field) {
+		return new Null(field);
+	}
+
+	/**
+	 * @return a condition true when all the given conditions are
+	 */
+	public static Predicate and(Predicate... operands) {
+		return new And(operands);
+	}
+
+	/**
+	 * @return a condition true when any of the given conditions is
+	 */
+	public static Predicate or(Predicate... operands) {
+		return new Or(operands);
+	}
+
+	/**
+	 * @return a condition true when the given condition is false
+	 */
+	public static Predicate not(Predicate operand) {
+		return new Not(operand);
+	}
+}
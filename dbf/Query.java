@@ -0,0 +1,257 @@
+/**
+ * Query answers questions about the records of a DBF file without loading
+ * it, like "all the questions of TYPE 5 with more than 6 answers" or "how
+ * many records there are for each PRODID".
+ * The file is read in batches of records: the condition is evaluated on the
+ * bytes of every record of a batch first, then only the records satisfying it
+ * are handled. The memory used does not depend on the size of the file.
+ * Deleted records are never found.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class Query {
+	private static final int BATCH_SIZE = 1024;
+	private Storage storage;
+	private String baseName;
+	private Predicate where;
+	private String[] selected = new String[0];
+	// the header and cursor of the scan in progress
+	private Header header;
+	private RecordCursor cursor;
+
+	/**
+	 * Receives the records found by a query, one at a time.
+	 */
+	public interface Handler {
+		void row(Row row) throws IOException;
+	}
+
+	/**
+	 * Receives each batch with the records satisfying the condition.
+	 */
+	private interface BatchHandler {
+		void batch(byte[] buf, int[] selection, int count, int firstRow)
+				throws IOException;
+	}
+
+	/**
+	 * Creates a query on all the records of a DBF file.
+	 *
+	 * @param newBaseName
+	 *            the name of the file without the extension
+	 */
+	public Query(String newBaseName) {
+		this(Storage.LOCAL, newBaseName);
+	}
+
+	/**
+	 * Creates a query on all the records of a DBF file found in a storage.
+	 *
+	 * @param newStorage
+	 *            where the file is
+	 * @param newBaseName
+	 *            the name of the file without the extension
+	 */
+	public Query(Storage newStorage, String newBaseName) {
+		storage = newStorage;
+		baseName = newBaseName;
+	}
+
+	/**
+	 * Restricts the query to the records satisfying a condition.
+	 *
+	 * @param condition
+	 */
+	public void where(Predicate condition) {
+		where = condition;
+	}
+
+	/**
+	 * Sets the fields that forEach makes readable from a Row.
+	 *
+	 * @param fields
+	 *            the names of the fields
+	 */
+	public void select(String... fields) {
+		selected = fields;
+	}
+
+	/**
+	 * Hands every record found to a handler.
+	 *
+	 * @param handler
+	 * @throws IOException
+	 */
+	public void forEach(final Handler handler) throws IOException {
+		scan(new BatchHandler() {
+			private Row row;
+
+			@Override
+			public void batch(byte[] buf, int[] selection, int count, int firstRow)
+					throws IOException {
+				if (row == null) {
+					row = newRow();
+				}
+				for (int i = 0; i < count; i++) {
+					row.set(buf, selection[i] * header.getRecordSize(),
+							firstRow + selection[i]);
+					handler.row(row);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the number of records found
+	 * @throws IOException
+	 */
+	public long count() throws IOException {
+		final long[] count = new long[1];
+		scan(new BatchHandler() {
+			@Override
+			public void batch(byte[] buf, int[] selection, int n, int firstRow) {
+				count[0] += n;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * Aggregates the values of a numeric field over the records found.
+	 *
+	 * @param field
+	 *            the name of the field
+	 * @return the aggregate, blank fields being ignored
+	 * @throws IOException
+	 */
+	public Aggregate aggregate(String field) throws IOException {
+		SortedMap<String, Aggregate> result = groupBy(null, field);
+		return result.isEmpty() ? new Aggregate() : result.get("");
+	}
+
+	/**
+	 * Aggregates the values of a numeric field over the records found, for
+	 * every value of another field.
+	 *
+	 * @param groupField
+	 *            the name of the field whose values make the groups, or null
+	 *            for a single group
+	 * @param valueField
+	 *            the name of the numeric field aggregated, or null to only
+	 *            count the records of each group
+	 * @return an aggregate for every value of groupField, trimmed, a blank
+	 *         value becoming the empty string
+	 * @throws IOException
+	 */
+	public SortedMap<String, Aggregate> groupBy(final String groupField,
+			final String valueField) throws IOException {
+		final SortedMap<String, Aggregate> groups = new TreeMap<String, Aggregate>();
+		scan(new BatchHandler() {
+			private Field group;
+			private Field value;
+
+			@Override
+			public void batch(byte[] buf, int[] selection, int count, int firstRow) {
+				if (group == null && groupField != null) {
+					group = field(groupField);
+				}
+				if (value == null && valueField != null) {
+					value = field(valueField);
+				}
+				int recordSize = header.getRecordSize();
+				for (int i = 0; i < count; i++) {
+					int record = selection[i] * recordSize;
+					String key = "";
+					if (group != null) {
+						key = header.getDecoder().decode(buf, record + group.getOffset(),
+								group.getLength());
+						if (key == null) {
+							key = "";
+						}
+					}
+					Aggregate aggregate = groups.get(key);
+					if (aggregate == null) {
+						aggregate = new Aggregate();
+						groups.put(key, aggregate);
+					}
+					if (value == null) {
+						aggregate.add(0);
+					} else if (!Numbers.isNull(value, buf, record)) {
+						aggregate.add(Numbers.toDouble(value, buf, record));
+					}
+				}
+			}
+		});
+		return groups;
+	}
+
+	/**
+	 * @return the number of records found for each value of a field
+	 * @throws IOException
+	 */
+	public SortedMap<String, Long> countBy(String field) throws IOException {
+		SortedMap<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, Aggregate> e : groupBy(field, null).entrySet()) {
+			counts.put(e.getKey(), e.getValue().getCount());
+		}
+		return counts;
+	}
+
+	/**
+	 * Reads the file a batch at a time, selecting the records satisfying the
+	 * condition before handing them over.
+	 */
+	private void scan(BatchHandler handler) throws IOException {
+		cursor = new RecordCursor(storage, baseName);
+		try {
+			header = cursor.getHeader();
+			if (where != null) {
+				where.bind(header);
+			}
+			int recordSize = header.getRecordSize();
+			byte[] buf = new byte[BATCH_SIZE * recordSize];
+			int[] selection = new int[BATCH_SIZE];
+			int read;
+			while ((read = cursor.nextBatch(buf, BATCH_SIZE)) > 0) {
+				int firstRow = cursor.getRow() - read + 1;
+				int count = 0;
+				for (int i = 0; i < read; i++) {
+					if (!Header.isDeleted(buf, i * recordSize)
+							&& (where == null || where.test(buf, i * recordSize))) {
+						selection[count++] = i;
+					}
+				}
+				if (count > 0) {
+					handler.batch(buf, selection, count, firstRow);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private Row newRow() {
+		Map<String, Field> fields = new HashMap<String, Field>();
+		for (String name : selected) {
+			fields.put(name, field(name));
+		}
+		return new Row(fields, cursor);
+	}
+
+	private Field field(String name) {
+		Field field = header.getField(name);
+		if (field == null) {
+			throw new IllegalArgumentException("No such field: " + name);
+		}
+		return field;
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * RecordCursor reads the records of a .dbf file one at a time, from the
+ * first to the last.
+ * A single record buffer is reused for every row, so the memory needed does
+ * not depend on the number of records in the table.
+ * Deleted records are skipped.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+public class RecordCursor implements Closeable {
+	private Storage storage;
+	private String baseName;
+	private DataInputStream stream;
+	private Header header;
+	private FPT fpt;
+	private byte[] record;
+	private int row = -1;
+
+	/**
+	 * Opens a DBF file and reads its header. The cursor is positioned before
+	 * the first record.
+	 *
+	 * @param newStorage
+	 *            where the file is
+	 * @param newBaseName
+	 *            the name of the file without the extension
+	 * @throws IOException
+	 */
+	RecordCursor(Storage newStorage, String newBaseName) throws IOException {
+		storage = newStorage;
+		baseName = newBaseName;
+		stream = new DataInputStream(new BufferedInputStream(
+				storage.openStream(storage.find(baseName, "dbf"))));
+		try {
+			header = Header.read(stream);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		record = new byte[header.getRecordSize()];
+	}
+
+	/**
+	 * Moves to the following record that is not deleted.
+	 *
+	 * @return false if there are no more records
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while (nextRecord()) {
+			if (!Header.isDeleted(record, 0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moves to the following record, even if it is deleted.
+	 *
+	 * @return false if there are no more records
+	 * @throws IOException
+	 */
+	boolean nextRecord() throws IOException {
+		if (row + 1 >= header.getNumRecords()) {
+			row = header.getNumRecords();
+			return false;
+		}
+		stream.readFully(record);
+		row++;
+		return true;
+	}
+
+	/**
+	 * Reads the following records into a buffer in one go, the current
+	 * record becoming the last one read. Deleted records are read too.
+	 *
+	 * @param batch
+	 *            the buffer, big enough for maxRecords records
+	 * @param maxRecords
+	 *            the most records to read
+	 * @return the number of records read, 0 if there are no more records
+	 * @throws IOException
+	 */
+	int nextBatch(byte[] batch, int maxRecords) throws IOException {
+		int count = Math.min(maxRecords, header.getNumRecords() - row - 1);
+		if (count <= 0) {
+			row = header.getNumRecords();
+			return 0;
+		}
+		stream.readFully(batch, 0, count * header.getRecordSize());
+		row += count;
+		return count;
+	}
+
+	/**
+	 * @return the number of the current record, counting deleted records
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * @return the number of records(rows) in the database.
+	 */
+	public int getNumRecords() {
+		return header.getNumRecords();
+	}
+
+	/**
+	 * Reads a string from the current record, resolving it through the memo
+	 * file if the field is of type Memo.
+	 *
+	 * @param field
+	 *            the name of the field
+	 * @return the string or null if the field is blank
+	 * @throws IOException
+	 */
+	public String getString(String field) throws IOException {
+		return getString(field(field));
+	}
+
+	/**
+	 * Reads a numeric value from the current record.
+	 *
+	 * @param field
+	 *            the name of the field
+	 * @return the numeric value, 0 if the field is blank
+	 */
+	public int getInt(String field) {
+		return getInt(field(field));
+	}
+
+	/**
+	 * Reads a memo field of the current record without reading its text.
+	 *
+	 * @param field
+	 *            the name of the field
+	 * @return a handle to the text or null if the field is blank
+	 * @throws IOException
+	 */
+	public Memo getMemo(String field) throws IOException {
+		int block = getBlock(field(field));
+		return block == 0 ? null : new Memo(getFPT(), block);
+	}
+
+	String getString(Field field) throws IOException {
+		if (field.getType() == 'M') {
+			int block = getBlock(field);
+			return block == 0 ? null : getFPT().getString(block);
+		}
+		return header.getDecoder().decode(record, field.getOffset(), field.getLength());
+	}
+
+	int getInt(Field field) {
+		if (field.getType() == 'I') {
+			return Numbers.readInt(record, field.getOffset());
+		}
+		return Numbers.parseInt(record, field.getOffset(), field.getLength());
+	}
+
+	/**
+	 * @return the block number of a memo field, 0 if the field is blank
+	 */
+	int getBlock(Field field) {
+		return Numbers.readBlock(record, field.getOffset(), field.getLength());
+	}
+
+	/**
+	 * @return the buffer holding the current record, reused for every row
+	 */
+	byte[] getRecord() {
+		return record;
+	}
+
+	/**
+	 * @return the memo file, opened the first time it is needed
+	 */
+	FPT getFPT() throws IOException {
+		if (fpt == null && header.hasMemo()) {
+			fpt = new FPT(storage, storage.find(baseName, "fpt"), header.getDecoder());
+		}
+		return fpt;
+	}
+
+	Header getHeader() {
+		return header;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (fpt != null) {
+			fpt.close();
+		}
+		stream.close();
+	}
+
+	private Field field(String name) {
+		Field field = header.getField(name);
+		if (field == null) {
+			throw new IllegalArgumentException("No such field: " + name);
+		}
+		return field;
+	}
+}
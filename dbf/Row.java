@@ -0,0 +1,101 @@
+/**
+ * A view of a record found by a Query.
+ * Only the fields selected by the query can be read, and they are decoded
+ * when they are read. The same instance is reused for every record, so it
+ * must not be kept after the record has been handled.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.IOException;
+import java.util.Map;
+
+public class Row {
+	private Map<String, Field> fields;
+	private RecordCursor cursor;
+	private byte[] buf;
+	private int record;
+	private int row;
+
+	Row(Map<String, Field> newFields, RecordCursor newCursor) {
+		fields = newFields;
+		cursor = newCursor;
+	}
+
+	void set(byte[] newBuf, int newRecord, int newRow) {
+		buf = newBuf;
+		record = newRecord;
+		row = newRow;
+	}
+
+	/**
+	 * @return the number of the record in the table
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Reads a string, resolving it through the memo file if the field is a
+	 * memo.
+	 *
+	 * @param name
+	 *            the name of the field
+	 * @return the string or null if the field is blank
+	 * @throws IOException
+	 */
+	public String getString(String name) throws IOException {
+		Field field = field(name);
+		if (field.isMemo()) {
+			int block = Numbers.readBlock(buf, record + field.getOffset(), field.getLength());
+			return block == 0 ? null : cursor.getFPT().getString(block);
+		}
+		return cursor.getHeader().getDecoder().decode(buf, record + field.getOffset(),
+				field.getLength());
+	}
+
+	/**
+	 * @param name
+	 *            the name of the field
+	 * @return the value of a numeric field, 0 if it is blank
+	 */
+	public double getDouble(String name) {
+		Field field = field(name);
+		if (Numbers.isNull(field, buf, record)) {
+			return 0;
+		}
+		return Numbers.toDouble(field, buf, record);
+	}
+
+	/**
+	 * @param name
+	 *            the name of the field
+	 * @return the value of a numeric field without decimals, 0 if it is blank
+	 */
+	public long getLong(String name) {
+		Field field = field(name);
+		if (field.getType() == 'I') {
+			return Numbers.readInt(buf, record + field.getOffset());
+		}
+		return Numbers.parseLong(buf, record + field.getOffset(), field.getLength());
+	}
+
+	/**
+	 * @param name
+	 *            the name of the field
+	 * @return whether the field holds no value
+	 */
+	public boolean isNull(String name) {
+		return Numbers.isNull(field(name), buf, record);
+	}
+
+	private Field field(String name) {
+		Field field = fields.get(name);
+		if (field == null) {
+			throw new IllegalArgumentException("Field not selected: " + name);
+		}
+		return field;
+	}
+}
@@ -0,0 +1,387 @@
+/**
+ * Storage is where the .dbf and .fpt files of the tables are read from: a
+ * directory of the local file system, a directory of any other NIO file
+ * system, like the one of a ZIP archive, or files held in memory.
+ * File names are relative to the storage, with '/' separating directories.
+ * Files of the local file system are read with positional reads or mapped in
+ * memory. Files of other file systems are streamed, and those that need to be
+ * read out of order are read once into memory rather than extracted to disk.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+public abstract class Storage implements Closeable {
+	/**
+	 * The local file system, names being paths relative to the working
+	 * directory or absolute.
+	 */
+	public static final Storage LOCAL = new PathStorage(Paths.get(""));
+
+	/**
+	 * @param name
+	 *            the name of a file
+	 * @return whether the file exists
+	 */
+	public abstract boolean exists(String name);
+
+	/**
+	 * Opens a file for reading.
+	 *
+	 * @param name
+	 *            the name of the file
+	 * @return a channel positioned at the start of the file
+	 * @throws IOException
+	 */
+	public abstract SeekableByteChannel open(String name) throws IOException;
+
+	/**
+	 * @param name
+	 *            the name of a file
+	 * @return the size of the file in bytes
+	 * @throws IOException
+	 */
+	public abstract long size(String name) throws IOException;
+
+	/**
+	 * @param name
+	 *            the name of a file
+	 * @return the time the file was last written, or 0 if it isn't known
+	 * @throws IOException
+	 */
+	public abstract long lastModified(String name) throws IOException;
+
+	/**
+	 * @param directory
+	 *            a directory of any file system
+	 * @return the storage holding the files of the directory
+	 */
+	public static Storage of(Path directory) {
+		return new PathStorage(directory);
+	}
+
+	/**
+	 * @param files
+	 *            the content of every file, by name
+	 * @return the storage holding the given files, which are never copied
+	 */
+	public static Storage of(Map<String, ByteBuffer> files) {
+		return new MemoryStorage(files);
+	}
+
+	/**
+	 * Opens a ZIP archive, whose files are then read without being extracted.
+	 * The archive stays open until the storage is closed, as memos are read
+	 * from it when they are needed.
+	 *
+	 * @param archive
+	 *            the path of the archive
+	 * @return the storage holding the files of the archive
+	 * @throws IOException
+	 */
+	public static Storage zip(Path archive) throws IOException {
+		final FileSystem fs = FileSystems.newFileSystem(archive, (ClassLoader) null);
+		return new PathStorage(fs.getPath("/")) {
+			@Override
+			public void close() throws IOException {
+				fs.close();
+			}
+		};
+	}
+
+	/**
+	 * Releases what the storage keeps open, like the file system of a ZIP
+	 * archive. Nothing is read from it afterwards. The default does nothing.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+	}
+
+	/**
+	 * Finds the file of a table, whose extension may be lower or upper case.
+	 *
+	 * @param baseName
+	 *            the name of the file without the extension
+	 * @param ext
+	 *            the name of the extension
+	 * @return the full name of the file, if one is found
+	 * @throws FileNotFoundException
+	 */
+	public String find(String baseName, String ext) throws FileNotFoundException {
+		for (String e : new String[] { ext.toLowerCase(), ext.toUpperCase() }) {
+			String name = baseName + "." + e;
+			if (exists(name)) {
+				return name;
+			}
+		}
+		throw new FileNotFoundException(baseName + "." + ext);
+	}
+
+	/**
+	 * @return the path of a file of the local file system, which can be opened
+	 *         with channels of any kind, or null for other files
+	 */
+	Path localPath(String name) {
+		return null;
+	}
+
+	/**
+	 * Opens a file to be read from start to end.
+	 */
+	InputStream openStream(String name) throws IOException {
+		return Channels.newInputStream(open(name));
+	}
+
+	/**
+	 * Opens a file for positional reads, which don't move the position of the
+	 * channel and can be made by concurrent readers.
+	 *
+	 * @return the channel or null if the file is not on the local file system
+	 * @throws IOException
+	 */
+	FileChannel openFile(String name) throws IOException {
+		SeekableByteChannel channel = open(name);
+		if (channel instanceof FileChannel) {
+			return (FileChannel) channel;
+		}
+		channel.close();
+		return null;
+	}
+
+	/**
+	 * Gives the whole content of a file if that doesn't take a copy of it:
+	 * mapped in memory for a local file, the buffer itself for a file held in
+	 * memory.
+	 *
+	 * @return a read-only buffer holding the file or null for files of other
+	 *         file systems
+	 * @throws IOException
+	 */
+	ByteBuffer view(String name) throws IOException {
+		return localPath(name) == null ? null : map(name);
+	}
+
+	/**
+	 * Gives the whole content of a file: mapped in memory for a local file,
+	 * read into memory otherwise.
+	 *
+	 * @return a read-only buffer holding the file
+	 * @throws IOException
+	 */
+	ByteBuffer map(String name) throws IOException {
+		SeekableByteChannel channel = open(name);
+		try {
+			if (channel instanceof FileChannel) {
+				// the mapping stays valid after the channel is closed
+				return ((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, 0,
+						channel.size());
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			// what is found past the size, which may not be known until the end
+			// is reached
+			ByteBuffer more = ByteBuffer.allocate(4096);
+			while (channel.read(buffer.hasRemaining() ? buffer : more) >= 0) {
+				if (more.position() > 0) {
+					ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2
+							+ more.capacity());
+					buffer.flip();
+					bigger.put(buffer);
+					more.flip();
+					bigger.put(more);
+					more.clear();
+					buffer = bigger;
+				}
+			}
+			buffer.flip();
+			return buffer.slice().asReadOnlyBuffer();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * The files of a directory of a file system.
+	 */
+	private static class PathStorage extends Storage {
+		private Path directory;
+
+		PathStorage(Path newDirectory) {
+			directory = newDirectory;
+		}
+
+		@Override
+		public boolean exists(String name) {
+			return Files.exists(directory.resolve(name));
+		}
+
+		@Override
+		public SeekableByteChannel open(String name) throws IOException {
+			Path path = directory.resolve(name);
+			if (path.getFileSystem() == FileSystems.getDefault()) {
+				return FileChannel.open(path);
+			}
+			return Files.newByteChannel(path);
+		}
+
+		@Override
+		public long size(String name) throws IOException {
+			return Files.size(directory.resolve(name));
+		}
+
+		@Override
+		public long lastModified(String name) throws IOException {
+			return Files.getLastModifiedTime(directory.resolve(name)).toMillis();
+		}
+
+		@Override
+		InputStream openStream(String name) throws IOException {
+			return Files.newInputStream(directory.resolve(name));
+		}
+
+		@Override
+		Path localPath(String name) {
+			Path path = directory.resolve(name);
+			return path.getFileSystem() == FileSystems.getDefault() ? path : null;
+		}
+	}
+
+	/**
+	 * Files held in memory.
+	 */
+	private static class MemoryStorage extends Storage {
+		private Map<String, ByteBuffer> files;
+
+		MemoryStorage(Map<String, ByteBuffer> newFiles) {
+			files = new HashMap<String, ByteBuffer>(newFiles);
+		}
+
+		@Override
+		public boolean exists(String name) {
+			return files.containsKey(name);
+		}
+
+		@Override
+		public SeekableByteChannel open(String name) throws IOException {
+			return new BufferChannel(map(name));
+		}
+
+		@Override
+		public long size(String name) throws IOException {
+			return map(name).capacity();
+		}
+
+		@Override
+		public long lastModified(String name) throws IOException {
+			// checks that the file exists
+			map(name);
+			return 0;
+		}
+
+		@Override
+		ByteBuffer view(String name) throws IOException {
+			return map(name);
+		}
+
+		@Override
+		ByteBuffer map(String name) throws IOException {
+			ByteBuffer file = files.get(name);
+			if (file == null) {
+				throw new NoSuchFileException(name);
+			}
+			return file.slice().asReadOnlyBuffer();
+		}
+	}
+
+	/**
+	 * A read-only channel over a buffer.
+	 */
+	private static class BufferChannel implements SeekableByteChannel {
+		private ByteBuffer buffer;
+		private boolean open = true;
+
+		BufferChannel(ByteBuffer newBuffer) {
+			buffer = newBuffer;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			checkOpen();
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(dst.remaining(), buffer.remaining());
+			ByteBuffer src = buffer.duplicate();
+			src.limit(src.position() + n);
+			dst.put(src);
+			buffer.position(buffer.position() + n);
+			return n;
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() throws IOException {
+			checkOpen();
+			return buffer.position();
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) throws IOException {
+			checkOpen();
+			buffer.position((int) Math.min(newPosition, buffer.limit()));
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			checkOpen();
+			return buffer.limit();
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+
+		private void checkOpen() throws ClosedChannelException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ * The operations offered by every DBF backend of this package, whatever the
+ * way the data is held.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+public interface Table {
+	/**
+	 * @return the number of records(rows) in the database.
+	 */
+	int getNumRecords();
+
+	/**
+	 * @return the number of fields(columns) in the database.
+	 */
+	int getNumFields();
+
+	/**
+	 * Deleted records keep their row, but their fields should not be used.
+	 *
+	 * @param row
+	 *            of the database
+	 * @return whether the record is flagged as deleted
+	 */
+	boolean isDeleted(int row);
+
+	/**
+	 * Reads a numeric value.
+	 *
+	 * @param row
+	 *            of the database
+	 * @param column
+	 *            of the database
+	 * @return the numeric value
+	 */
+	int readInt(int row, String column);
+
+	/**
+	 *
+	 * @param row
+	 *            of the database
+	 * @param column
+	 *            of the database
+	 * @return the string
+	 */
+	String readString(int row, String column);
+
+	/**
+	 * Reads a memo field without reading its text.
+	 *
+	 * @param row
+	 *            of the database
+	 * @param column
+	 *            of the database
+	 * @return a handle to the text or null if the field is blank
+	 */
+	Memo readMemo(int row, String column);
+}
@@ -0,0 +1,61 @@
+/**
+ * TableOpenEvent is recorded by the JDK Flight Recorder when a table is
+ * loaded, from the opening of its file to the building of its columns.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("cuxna.TableOpen")
+@Label("Table Open")
+@Category({ "Cuxna", "DBF" })
+class TableOpenEvent extends jdk.jfr.Event {
+	@Label("Table")
+	String table;
+
+	@Label("Mode")
+	String mode;
+
+	@Label("Records")
+	int records;
+
+	@Label("Fields")
+	int fields;
+
+	@Label("Size")
+	@DataAmount
+	long bytes;
+
+	@Label("Header Time")
+	@Timespan
+	long headerTime;
+
+	TableOpenEvent(String newTable, String newMode) {
+		table = newTable;
+		mode = newMode;
+	}
+
+	/**
+	 * Records the size of a table once its header is read.
+	 *
+	 * @param header
+	 *            the header of the table
+	 * @param start
+	 *            the System.nanoTime the header started being read at
+	 */
+	void header(Header header, long start) {
+		if (isEnabled()) {
+			headerTime = System.nanoTime() - start;
+			records = header.getNumRecords();
+			fields = header.getFields().length;
+			bytes = header.getRecordPosition(records);
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * TextDecoder turns the bytes of Character and Memo fields into strings,
+ * using the charset given by the code page mark of the table.
+ * Blanks are trimmed by scanning the bytes before anything is decoded, and
+ * text made only of ASCII characters, which reads the same in every code
+ * page, is copied into the String without going through the charset.
+ *
+ * @author Andrea Chiavazza
+ * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
+ */
+package cuxna.dbf;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+final class TextDecoder {
+	/**
+	 * Used by tables that declare no code page, as they always were.
+	 */
+	static final TextDecoder DEFAULT = new TextDecoder(StandardCharsets.ISO_8859_1);
+
+	// charsets by code page mark, as listed by the Visual FoxPro documentation
+	private static final String[] CHARSETS = new String[256];
+	static {
+		CHARSETS[0x01] = "IBM437";
+		CHARSETS[0x02] = "IBM850";
+		CHARSETS[0x03] = "windows-1252";
+		CHARSETS[0x04] = "x-MacRoman";
+		CHARSETS[0x64] = "IBM852";
+		CHARSETS[0x65] = "IBM866";
+		CHARSETS[0x66] = "IBM865";
+		CHARSETS[0x67] = "IBM861";
+		CHARSETS[0x68] = "IBM895";
+		CHARSETS[0x6A] = "x-IBM737";
+		CHARSETS[0x6B] = "IBM857";
+		CHARSETS[0x78] = "Big5";
+		CHARSETS[0x79] = "x-windows-949";
+		CHARSETS[0x7A] = "GBK";
+		CHARSETS[0x7B] = "windows-31j";
+		CHARSETS[0x7C] = "x-windows-874";
+		CHARSETS[0x7D] = "windows-1255";
+		CHARSETS[0x7E] = "windows-1256";
+		CHARSETS[0x96] = "x-MacCyrillic";
+		CHARSETS[0x97] = "x-MacCentralEurope";
+		CHARSETS[0x98] = "x-MacGreek";
+		CHARSETS[0xC8] = "windows-1250";
+		CHARSETS[0xC9] = "windows-1251";
+		CHARSETS[0xCA] = "windows-1254";
+		CHARSETS[0xCB] = "windows-1253";
+		CHARSETS[0xCC] = "windows-1257";
+	}
+
+	private Charset charset;
+	// the character of every byte, null unless each character is one byte
+	private char[] chars;
+
+	private TextDecoder(Charset newCharset) {
+		charset = newCharset;
+		if (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1) {
+			chars = new String(allBytes(), charset).toCharArray();
+			if (chars.length != 256) {
+				chars = null;
+			}
+		}
+	}
+
+	/**
+	 * @param codePageMark
+	 *            the code page mark found in the header of a table
+	 * @return the decoder for the code page, or DEFAULT if the code page is
+	 *         unknown or its charset is not available
+	 */
+	static TextDecoder forCodePage(int codePageMark) {
+		String name = CHARSETS[codePageMark & 0xff];
+		if (name == null || !Charset.isSupported(name)) {
+			return DEFAULT;
+		}
+		return new TextDecoder(Charset.forName(name));
+	}
+
+	/**
+	 * @param charset
+	 *            the name of a charset, as given by getCharset
+	 * @return the decoder for the charset
+	 */
+	static TextDecoder forCharset(String charset) {
+		if (DEFAULT.charset.name().equals(charset)) {
+			return DEFAULT;
+		}
+		return new TextDecoder(Charset.forName(charset));
+	}
+
+	Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Decodes text, trimming it first.
+	 *
+	 * @param buf
+	 *            the buffer to read from
+	 * @param offset
+	 *            where the text starts
+	 * @param size
+	 *            how many bytes to read
+	 * @return the text or null if it is blank
+	 */
+	String decode(byte[] buf, int offset, int size) {
+		int start = offset;
+		int end = offset + size;
+		while (start < end && (buf[start] & 0xff) <= ' ') {
+			start++;
+		}
+		while (end > start && (buf[end - 1] & 0xff) <= ' ') {
+			end--;
+		}
+		return decodeTrimmed(buf, start, end - start);
+	}
+
+	/**
+	 * Decodes text already trimmed.
+	 *
+	 * @return the text or null if it is empty
+	 */
+	String decodeTrimmed(byte[] buf, int offset, int length) {
+		if (length == 0) {
+			return null;
+		}
+		if (isAscii(buf, offset, length)) {
+			// every byte is its own character: a plain copy
+			return new String(buf, offset, length, StandardCharsets.ISO_8859_1);
+		}
+		return new String(buf, offset, length, charset);
+	}
+
+	/**
+	 * @return the character of a byte, for code pages where every character
+	 *         is a single byte
+	 * @throws UnsupportedOperationException
+	 *             if the code page has characters of several bytes
+	 */
+	char toChar(byte b) {
+		if (chars == null) {
+			throw new UnsupportedOperationException(charset + " is not single byte");
+		}
+		return chars[b & 0xff];
+	}
+
+	/**
+	 * @return whether toChar can be used
+	 */
+	boolean isSingleByte() {
+		return chars != null;
+	}
+
+	/**
+	 * Encodes a value to be compared with the bytes of fields.
+	 *
+	 * @param value
+	 *            the value, null for a blank field
+	 * @return the bytes of the trimmed value
+	 */
+	byte[] encode(String value) {
+		return value == null ? new byte[0] : value.trim().getBytes(charset);
+	}
+
+	private static boolean isAscii(byte[] buf, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (buf[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] allBytes() {
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) i;
+		}
+		return bytes;
+	}
+}
@@ -14,13 +14,11 @@ import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.BitSet;
 import java.util.prefs.Preferences;
 
 import javax.swing.AbstractAction;
@@ -46,8 +44,6 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import cuxna.data.Data;
-import cuxna.data.Question;
-import cuxna.data.QuestionData;
 import cuxna.data.Quiz;
 import cuxna.data.UserData;
 
@@ -68,9 +64,13 @@ public class GUI extends JFrame {
 	}
 	private class UserCancelException extends Exception { }
 	private Quiz[] quizes;
-	private NavigableMap<Question, QuestionData> questions;
-	private NavigableMap<Question, UserData> userData = new TreeMap<Question, UserData>();
-	private CurrentProperty<Question> currentQuestion = new CurrentProperty<Question>();
+	private Data data;
+	// the data of the user for each question, by question id
+	private UserData[] userData;
+	// the ids of the questions the user was shown
+	private BitSet tested = new BitSet();
+	// the id of the question shown, or NO_QUESTION
+	private int currentQuestion = NO_QUESTION;
 
 	private TimeInfoPanel timeInfoPanel = new TimeInfoPanel();
 	private QuestionInfoPanel questionInfoPanel;
@@ -89,6 +89,7 @@ public class GUI extends JFrame {
 	private SpinnerNumberModel fontSpinnerModel = new SpinnerNumberModel(14, 10, 30, 1);
 
 	private static final String PREFERENCE = "preferredFontSize";
+	private static final int NO_QUESTION = -1;
 
 	/**
 	 * Prompts the user for a directory path.
@@ -99,7 +100,8 @@ public class GUI extends JFrame {
 	 */
 	private File chooseDir() throws UserCancelException {
 		JFileChooser fileChooser = new JFileChooser();
-		fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		// a folder, or a ZIP archive holding the data
+		fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 		switch (fileChooser.showOpenDialog(null)) {
 		case JFileChooser.APPROVE_OPTION:
 			return fileChooser.getSelectedFile();
@@ -112,20 +114,31 @@ public class GUI extends JFrame {
 
 	private void loadDataPrompt() throws UserCancelException, IOException {
 		JOptionPane.showMessageDialog(this,
-				"Please select the folder containing the data for the questions.\n" +
+				"Please select the folder containing the data for the questions,\n" +
+				"or a ZIP archive of it.\n" +
 				"It can be found:\n" +
 				"- in the directory created by the Windows installer at: LearnKey\\MasterExam\\database\n" +
 				"- in the CD included with the book at: /Programs/MasterExam/robo/database");
-		Data data = new Data(chooseDir());
+		setData(new Data(chooseDir()));
+	}
+
+	private void setData(Data newData) {
+		if (data != null) {
+			try {
+				data.close();
+			} catch (IOException e) {
+				// the new bank is used anyway
+			}
+		}
+		data = newData;
 		quizes = data.getQuizes();
-		questions = data.getQuestions();
+		userData = new UserData[data.getQuestionCount()];
+		tested.clear();
 	}
 
 	private void loadData() {
 		try {
-			Data data = new Data();
-			quizes = data.getQuizes();
-			questions = data.getQuestions();
+			setData(new Data());
 		} catch (IOException e) {
 			for (;;) {
 				try {
@@ -151,8 +164,8 @@ public class GUI extends JFrame {
 		questionPanel = new QuestionPanel(fontSize);
 		answerPanel = new AnswerPanel(fontSize);
 
-		questionInfoPanel = new QuestionInfoPanel(questions.size());
-		quizPanel = new QuizPanel(quizes, questions);
+		questionInfoPanel = new QuestionInfoPanel(data.getQuestionCount());
+		quizPanel = new QuizPanel(quizes);
 		// sets key short-cuts
 		prevButton.setMnemonic(KeyEvent.VK_P);
 		nextButton.setMnemonic(KeyEvent.VK_N);
@@ -166,76 +179,13 @@ public class GUI extends JFrame {
 		promptPathButton.setToolTipText("Loads a new database");
 		
 		// adds all the listeners
-		currentQuestion.addPropertyChangeListener(new PropertyChangeListener() {
-			@Override
-			public void propertyChange(PropertyChangeEvent e) {
-				Question oldValue = (Question) e.getOldValue();
-				Question newValue = (Question) e.getNewValue();
-				// there is not a current question
-				if (newValue == null) {
-					prevButton.setEnabled(false);
-					nextButton.setEnabled(false);
-					markCheckBox.setEnabled(false);
-					showHintButton.setEnabled(false);
-					showSolutionButton.setEnabled(false);
-					showResultButton.setEnabled(false);
-					resetButton.setEnabled(false);
-					promptPathButton.setEnabled(true);
-					answerPanel.clear();
-					questionPanel.reset();
-					return;
-				}
-				// no question was previously selected - starts the exam
-				if (oldValue == null) {
-					markCheckBox.setEnabled(true);
-					showHintButton.setEnabled(true);
-					showSolutionButton.setEnabled(true);
-					resetButton.setEnabled(true);
-					promptPathButton.setEnabled(false);
-					showResultButton.setEnabled(true);
-					timeInfoPanel.start();
-				// a question was previously selected
-				} else {
-					// unmark the previously selected question in quizPanel
-					showState(oldValue);
-					quizPanel.setCurrentState(oldValue, false);
-					quizPanel.setMarkedState(oldValue, userData.get(oldValue).isMarked());
-					// updates the correct counter
-					if (showResultButton.isSelected()) {
-						questionInfoPanel.setCorrectCount(getCorrectCount());
-					}
-				}
-				// the question selected is new
-				if (!userData.containsKey(newValue)) {
-					userData.put(newValue, new UserData(questions.get(newValue).getAnswers().length)); // questions.get(newValue).getCorrectAnswer()
-					// update the tested question count
-					questionInfoPanel.setTestedCount(userData.size());
-					quizPanel.showState(newValue, QuestionState.TESTED);
-				}
-				// marks the currently selected question in quizPanel
-				quizPanel.setCurrentState(newValue, true);
-				// sets markCheckBox according to the question state
-				markCheckBox.setSelected(userData.get(newValue).isMarked());
-				// sets the question text
-				questionPanel.setText(questions.get(newValue).getText());
-				// sets the answers
-				answerPanel.showAnswers(questions.get(newValue));
-				// updates the check-boxes with the answer previously given
-				answerPanel.setAnswer(userData.get(newValue).getAnswer());
-				// enable/disable previous/next buttons
-				checkPrevNextButton();
-			}
-		});
 		quizPanel.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				String[] s = e.getActionCommand().split(" ");
-				int quizNo = Integer.parseInt(s[0]);
-				int questionNo = Integer.parseInt(s[1]);
-				Question question = new Question(quizNo, questionNo);
-				if (userData.containsKey(question) ||
+				int questionId = Integer.parseInt(e.getActionCommand());
+				if (tested.get(questionId) ||
 						!questionInfoPanel.isAllTested()) {
-					currentQuestion.setValue(question);
+					select(questionId);
 				}
 			}
 		});
@@ -243,21 +193,21 @@ public class GUI extends JFrame {
 		prevButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				currentQuestion.setValue(getPrevQuestion(currentQuestion.getValue()));
+				select(getPrevQuestion(currentQuestion));
 			}
 		});
 		nextButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				currentQuestion.setValue(getNextQuestion(currentQuestion.getValue()));
+				select(getNextQuestion(currentQuestion));
 			}
 		});
 		markCheckBox.addChangeListener(new ChangeListener() {
 			@Override
 			public void stateChanged(ChangeEvent e) {
-				if (currentQuestion.getValue() != null &&
-						userData.containsKey(currentQuestion.getValue())) {
-					userData.get(currentQuestion.getValue()).setMarked(markCheckBox.isSelected());
+				if (currentQuestion != NO_QUESTION &&
+						tested.get(currentQuestion)) {
+					userData[currentQuestion].setMarked(markCheckBox.isSelected());
 				}
 			}
 		});
@@ -266,7 +216,7 @@ public class GUI extends JFrame {
 			@Override
 			public void stateChanged(ChangeEvent e) {
 				Choice choice = (Choice) e.getSource();
-				userData.get(currentQuestion.getValue()).getAnswer()[choice.getChoiceNumber()] = choice.isSelected();
+				userData[currentQuestion].getAnswer()[choice.getChoiceNumber()] = choice.isSelected();
 			}
 		});
 		resetButton.addActionListener(new ActionListener() {
@@ -277,12 +227,14 @@ public class GUI extends JFrame {
 					return;
 				}
 				// clear the user data
-				userData.clear();
+				Arrays.fill(userData, null);
+				tested.clear();
+				data.unpinAll();
 				resetButton.setEnabled(false);
 				timeInfoPanel.reset();
 				quizPanel.reset();
 				questionInfoPanel.reset();
-				currentQuestion.setValue(null);
+				setCurrentQuestion(NO_QUESTION);
 				showResultButton.setSelected(false);
 			}
 		});
@@ -296,8 +248,8 @@ public class GUI extends JFrame {
 				// updates the visibility of the correct count
 				questionInfoPanel.showResult(showResultButton.isSelected());
 				// updates the visibility of the result for all questions
-				for (Question question : userData.keySet()) {
-					showState(question);
+				for (int id = tested.nextSetBit(0); id >= 0; id = tested.nextSetBit(id + 1)) {
+					showState(id);
 				}
 			}
 		});
@@ -305,21 +257,21 @@ public class GUI extends JFrame {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				JOptionPane.showMessageDialog(GUI.this,
-						questions.get(currentQuestion.getValue()).getHint(),
+						data.getQuestionData(currentQuestion).getHint(),
 						"Hint", JOptionPane.INFORMATION_MESSAGE);
 			}
 		});
 		showSolutionButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				JTextArea ta = new JTextArea(questions.get(currentQuestion.getValue()).getSolution());
+				JTextArea ta = new JTextArea(data.getQuestionData(currentQuestion).getSolution());
 				ta.setFont(ta.getFont().deriveFont(fontSpinnerModel.getNumber().floatValue()));
 				ta.setEditable(false);
 				ta.setLineWrap(true);
 				ta.setWrapStyleWord(true);
 				ta.setColumns(40);
 				ta.setRows(20);
-				showState(currentQuestion.getValue());
+				showState(currentQuestion);
 				JOptionPane.showMessageDialog(GUI.this, new JScrollPane(ta), "Solution",
 						JOptionPane.INFORMATION_MESSAGE);
 			}
@@ -328,7 +280,7 @@ public class GUI extends JFrame {
 		questionInfoPanel.addChangeListener(new ChangeListener() {
 			@Override
 			public void stateChanged(ChangeEvent e) {
-				if (currentQuestion.getValue() != null) {
+				if (currentQuestion != NO_QUESTION) {
 					checkPrevNextButton();
 				}
 			}
@@ -338,8 +290,8 @@ public class GUI extends JFrame {
 			public void actionPerformed(ActionEvent e) {
 				try {
 					loadDataPrompt();
-					questionInfoPanel.setQuestionCount(questions.size());
-					quizPanel = new QuizPanel(quizes, questions);
+					questionInfoPanel.setQuestionCount(data.getQuestionCount());
+					quizPanel = new QuizPanel(quizes);
 				} catch (UserCancelException e2) {					
 				} catch (IOException e2) {
 					// inform user database coudn't be read
@@ -356,19 +308,101 @@ public class GUI extends JFrame {
 				Preferences.userNodeForPackage(GUI.class).putInt(PREFERENCE, size);
 			}
 		});
-		currentQuestion.setValue(null);
+		setCurrentQuestion(NO_QUESTION);
 		questionInfoPanel.showResult(false);
 	}
 
+	/**
+	 * Makes a question the current one, unless its quiz can't be loaded.
+	 */
+	private void select(int questionId) {
+		try {
+			// loads the quiz, if it isn't loaded yet
+			data.getQuestionData(questionId);
+		} catch (UncheckedIOException e) {
+			JOptionPane.showMessageDialog(this, "The question couldn't be read");
+			return;
+		}
+		setCurrentQuestion(questionId);
+	}
+
+	/**
+	 * Makes a question the current one and updates the panels, or shows none
+	 * when given NO_QUESTION.
+	 */
+	private void setCurrentQuestion(int newValue) {
+		int oldValue = currentQuestion;
+		if (newValue != NO_QUESTION && newValue == oldValue) {
+			return;
+		}
+		currentQuestion = newValue;
+		// there is not a current question
+		if (newValue == NO_QUESTION) {
+			prevButton.setEnabled(false);
+			nextButton.setEnabled(false);
+			markCheckBox.setEnabled(false);
+			showHintButton.setEnabled(false);
+			showSolutionButton.setEnabled(false);
+			showResultButton.setEnabled(false);
+			resetButton.setEnabled(false);
+			promptPathButton.setEnabled(true);
+			answerPanel.clear();
+			questionPanel.reset();
+			return;
+		}
+		// no question was previously selected - starts the exam
+		if (oldValue == NO_QUESTION) {
+			markCheckBox.setEnabled(true);
+			showHintButton.setEnabled(true);
+			showSolutionButton.setEnabled(true);
+			resetButton.setEnabled(true);
+			promptPathButton.setEnabled(false);
+			showResultButton.setEnabled(true);
+			timeInfoPanel.start();
+		// a question was previously selected
+		} else {
+			// unmark the previously selected question in quizPanel
+			showState(oldValue);
+			quizPanel.setCurrentState(oldValue, false);
+			quizPanel.setMarkedState(oldValue, userData[oldValue].isMarked());
+			// updates the correct counter
+			if (showResultButton.isSelected()) {
+				questionInfoPanel.setCorrectCount(getCorrectCount());
+			}
+		}
+		// the question selected is new
+		if (!tested.get(newValue)) {
+			// the quiz must stay loaded to check the answers
+			data.pin(data.getQuizNo(newValue));
+			userData[newValue] = new UserData(data.getQuestionData(newValue).getAnswers().length); // data.getQuestionData(newValue).getCorrectAnswer()
+			tested.set(newValue);
+			// update the tested question count
+			questionInfoPanel.setTestedCount(tested.cardinality());
+			quizPanel.showState(newValue, QuestionState.TESTED);
+		}
+		// marks the currently selected question in quizPanel
+		quizPanel.setCurrentState(newValue, true);
+		// sets markCheckBox according to the question state
+		markCheckBox.setSelected(userData[newValue].isMarked());
+		// sets the question text
+		questionPanel.showQuestion(data.getQuestionData(newValue));
+		// sets the answers
+		answerPanel.showAnswers(data.getQuestionData(newValue));
+		// updates the check-boxes with the answer previously given
+		answerPanel.setAnswer(userData[newValue].getAnswer());
+		// enable/disable previous/next buttons
+		checkPrevNextButton();
+	}
+
 	/**
 	 * if the button to show result is set, shows in the panel whether the
 	 * answer is correct otherwise just shows if the question is being tested or
 	 * not
 	 */
-	private void showState(Question question) {
+	private void showState(int question) {
 		if (showResultButton.isSelected()) {
-			if (Arrays.equals(userData.get(question).getAnswer(),
-					new boolean[userData.get(question).getAnswer().length])) {
+			if (Arrays.equals(userData[question].getAnswer(),
+					new boolean[userData[question].getAnswer().length])) {
 				quizPanel.showState(question, QuestionState.UNANSWERED);
 			} else if (isCorrect(question)) {
 				quizPanel.showState(question, QuestionState.CORRECT);
@@ -376,7 +410,7 @@ public class GUI extends JFrame {
 				quizPanel.showState(question, QuestionState.WRONG);
 			}
 		} else {
-			if (userData.containsKey(question)) {
+			if (tested.get(question)) {
 				quizPanel.showState(question, QuestionState.TESTED);
 			} else {
 				quizPanel.showState(question, QuestionState.UNTESTED);
@@ -384,14 +418,14 @@ public class GUI extends JFrame {
 		}
 	}
 
-	private boolean isCorrect(Question question) {
-		return Arrays.equals(userData.get(question).getAnswer(),
-				questions.get(question).getCorrectAnswer());
+	private boolean isCorrect(int question) {
+		return Arrays.equals(userData[question].getAnswer(),
+				data.getQuestionData(question).getCorrectAnswer());
 	}
 
 	private int getCorrectCount() {
 		int count = 0;
-		for (Question q : userData.keySet()) {
+		for (int q = tested.nextSetBit(0); q >= 0; q = tested.nextSetBit(q + 1)) {
 			if (isCorrect(q)) {
 				count++;
 			}
@@ -400,29 +434,35 @@ public class GUI extends JFrame {
 	}
 
 	private void checkPrevNextButton() {
-		prevButton.setEnabled(getPrevQuestion(currentQuestion.getValue()) != null);
-		nextButton.setEnabled(getNextQuestion(currentQuestion.getValue()) != null);
+		prevButton.setEnabled(getPrevQuestion(currentQuestion) >= 0);
+		nextButton.setEnabled(getNextQuestion(currentQuestion) >= 0);
 	}
 
-	private Question getPrevQuestion(Question question) {
+	/**
+	 * @return the id of the previous question, or -1 if there is none
+	 */
+	private int getPrevQuestion(int question) {
 		// if the target number of question hasn't been reached simply returns
 		// the previous question
 		if (!questionInfoPanel.isAllTested()) {
-			return questions.lowerKey(question);
+			return question - 1;
 		} else {
 			// otherwise returns the previous already chosen question
-			return userData.lowerKey(question);
+			return tested.previousSetBit(question - 1);
 		}
 	}
 
-	private Question getNextQuestion(Question question) {
+	/**
+	 * @return the id of the next question, or -1 if there is none
+	 */
+	private int getNextQuestion(int question) {
 		// if the target number of question hasn't been reached simply returns
 		// the following question
 		if (!questionInfoPanel.isAllTested()) {
-			return questions.higherKey(question);
+			return question + 1 < data.getQuestionCount() ? question + 1 : -1;
 		} else {
 			// otherwise returns the next already chosen question
-			return userData.higherKey(question);
+			return tested.nextSetBit(question + 1);
 		}
 	}
 
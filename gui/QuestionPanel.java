@@ -1,24 +1,115 @@
 /**
- * A panel that shows the question
+ * A panel that shows the question, and its picture if it has one.
+ * Pictures are decoded in the background, once their question is shown.
  * 
  * @author Andrea Chiavazza
  * Copyright 2010 licensed under GPL version 3 obtainable from http://www.gnu.org/licenses/gpl.html
  */
 package cuxna.gui;
 
+import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Insets;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
 
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.Scrollable;
+import javax.swing.SwingWorker;
+
+import cuxna.data.QuestionData;
 
 public class QuestionPanel extends JScrollPane {
 	private JTextArea textArea = new JTextArea();
+	private JLabel pictureLabel = new JLabel();
+	// decodes the picture of the question shown, if it has one
+	private SwingWorker<BufferedImage, Void> pictureWorker;
+
+	/**
+	 * Holds the text and the picture, following the width of the viewport so
+	 * that the text is wrapped.
+	 */
+	@SuppressWarnings("serial")
+	private static class Content extends JPanel implements Scrollable {
+		Content() {
+			super(new BorderLayout());
+		}
+
+		@Override
+		public Dimension getPreferredScrollableViewportSize() {
+			return getPreferredSize();
+		}
+
+		@Override
+		public int getScrollableUnitIncrement(Rectangle visibleRect,
+				int orientation, int direction) {
+			return 16;
+		}
+
+		@Override
+		public int getScrollableBlockIncrement(Rectangle visibleRect,
+				int orientation, int direction) {
+			return visibleRect.height;
+		}
+
+		@Override
+		public boolean getScrollableTracksViewportWidth() {
+			return true;
+		}
+
+		@Override
+		public boolean getScrollableTracksViewportHeight() {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads a buffer as a stream, so that the picture is decoded straight from
+	 * the memory the database is mapped to.
+	 */
+	private static class BufferInputStream extends InputStream {
+		private ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer newBuffer) {
+			buffer = newBuffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+	}
 
 	QuestionPanel(int fontSize) {
-		setViewportView(textArea);
+		Content content = new Content();
+		content.add(textArea, BorderLayout.CENTER);
+		content.add(pictureLabel, BorderLayout.SOUTH);
+		pictureLabel.setHorizontalAlignment(JLabel.CENTER);
+		setViewportView(content);
 		textArea.setLineWrap(true);
 		textArea.setWrapStyleWord(true);
 		textArea.setEditable(false);
@@ -34,7 +125,62 @@ public class QuestionPanel extends JScrollPane {
 		textArea.setText(text);
 	}
 
+	/**
+	 * Shows a question, decoding its picture in the background if it has one.
+	 * The bytes of the picture are only read by then.
+	 * 
+	 * @param question
+	 */
+	void showQuestion(final QuestionData question) {
+		setText(question.getText());
+		clearPicture();
+		if (!question.hasPicture()) {
+			return;
+		}
+		pictureLabel.setText("Loading picture...");
+		pictureWorker = new SwingWorker<BufferedImage, Void>() {
+			@Override
+			protected BufferedImage doInBackground() throws IOException {
+				BufferedImage image = ImageIO.read(new BufferInputStream(
+						question.getPicture()));
+				if (image == null) {
+					throw new IOException("Unknown picture format");
+				}
+				return image;
+			}
+
+			@Override
+			protected void done() {
+				// another question may be shown by now
+				if (isCancelled() || pictureWorker != this) {
+					return;
+				}
+				try {
+					pictureLabel.setText(null);
+					pictureLabel.setIcon(new ImageIcon(get()));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					pictureLabel.setText("The picture can't be shown: "
+							+ e.getCause().getMessage());
+				}
+				revalidate();
+			}
+		};
+		pictureWorker.execute();
+	}
+
+	private void clearPicture() {
+		if (pictureWorker != null) {
+			pictureWorker.cancel(true);
+			pictureWorker = null;
+		}
+		pictureLabel.setIcon(null);
+		pictureLabel.setText(null);
+	}
+
 	void reset() {
+		clearPicture();
 		setText("Select the number of questions to be tested and " +
 				"the time limit, then start choosing questions " +
 				"from the panel on the left.");
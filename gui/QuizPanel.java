@@ -15,9 +15,6 @@ import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -28,58 +25,44 @@ import javax.swing.JSeparator;
 import javax.swing.SwingConstants;
 import javax.swing.event.EventListenerList;
 
-import cuxna.data.Question;
-import cuxna.data.QuestionData;
 import cuxna.data.Quiz;
 
 
 public class QuizPanel extends JPanel implements ActionListener {
 	private static final int MAX_COLUMNS = 3;
-	private NavigableMap<Question, JButton> buttons = new TreeMap<Question, JButton>();
+	// the button of each question, by question id
+	private JButton[] buttons;
 	private EventListenerList actionListeners = new EventListenerList();
 
-	QuizPanel(Quiz[] quizes, Map<Question, QuestionData> questions) {
+	QuizPanel(Quiz[] quizes) {
 		super(new GridBagLayout());
+		int questionCount = 0;
+		for (Quiz quiz : quizes) {
+			questionCount += quiz.getQuestionCount();
+		}
+		buttons = new JButton[questionCount];
 		/// makes questions be focused in the correct order
 		this.setFocusTraversalPolicy(new FocusTraversalPolicy() {
 				@Override
 				public Component getComponentBefore(Container aContainer, Component aComponent) {
-					for (Question q : buttons.keySet()) {
-						if (buttons.get(q).equals(aComponent)) {
-							Question prev = buttons.lowerKey(q);
-							if (prev != null) {
-								return buttons.get(buttons.lowerKey(q));
-							} else {
-								return null;
-							}
-						}
-					}
-					return null;
+					int id = Integer.parseInt(((JButton) aComponent).getActionCommand());
+					return id > 0 ? buttons[id - 1] : null;
 				}
 
 				@Override
 				public Component getComponentAfter(Container aContainer, Component aComponent) {
-					for (Question q : buttons.keySet()) {
-						if (buttons.get(q).equals(aComponent)) {
-							Question next = buttons.lowerKey(q);
-							if (next != null) {
-								return buttons.get(buttons.higherKey(q));
-							} else {
-								return null;
-							}
-						}
-					}
-					return null;
+					int id = Integer.parseInt(((JButton) aComponent).getActionCommand());
+					return id + 1 < buttons.length ? buttons[id + 1] : null;
 				}
 
 				@Override
 				public Component getFirstComponent(Container aContainer) {
-					return buttons.get(buttons.firstKey());
+					return buttons.length > 0 ? buttons[0] : null;
 				}
 
 				@Override
 				public Component getLastComponent(Container aContainer) {
-					return buttons.get(buttons.lastKey());
+					return buttons.length > 0 ? buttons[buttons.length - 1] : null;
 				}
 
 				@Override
@@ -101,6 +84,7 @@ public class QuizPanel extends JPanel implements ActionListener {
 		c.insets = new Insets(0, 0, 0, 0);
 		c.fill = GridBagConstraints.NONE;
 		c.gridwidth = 1;
+		int id = 0;
 		for (int quizNo = 0; quizNo < quizes.length; quizNo++) {
 			// set prodid
 			c.gridx = quizNo * (MAX_COLUMNS + 1);
@@ -111,10 +95,10 @@ public class QuizPanel extends JPanel implements ActionListener {
 			JButton button;
 			for (int questionNo = 0; questionNo < quizes[quizNo].getQuestionCount();
 					questionNo++) {
-				button = createQuestionButton(new Question(quizNo, questionNo));
+				button = createQuestionButton(id, questionNo);
 				c.gridx = questionNo % MAX_COLUMNS + quizNo * (MAX_COLUMNS + 1);
 				c.gridy = questionNo / MAX_COLUMNS + 2;
-				buttons.put(new Question(quizNo, questionNo), button);
+				buttons[id++] = button;
 				add(button, c);
 			}
 			// the last column doesn't need a separator on the right
@@ -137,7 +121,7 @@ public class QuizPanel extends JPanel implements ActionListener {
 		add(Box.createVerticalGlue(), c);
 	}
 
-	void showState(Question question, GUI.QuestionState state) {
+	void showState(int questionId, GUI.QuestionState state) {
 		Color color;
 		switch (state) {
 		case CORRECT:
@@ -158,38 +142,42 @@ public class QuizPanel extends JPanel implements ActionListener {
 		default:
 			color = null;
 		}
-		buttons.get(question).setBackground(color);
+		buttons[questionId].setBackground(color);
 	}
 
-	void setMarkedState(Question question, boolean isMarked) {
+	void setMarkedState(int questionId, boolean isMarked) {
 		if (isMarked) {
-			buttons.get(question).setBorder(BorderFactory.createLineBorder(Color.BLUE, 3));
+			buttons[questionId].setBorder(BorderFactory.createLineBorder(Color.BLUE, 3));
 		} else {
-			buttons.get(question).setBorder(BorderFactory.createEmptyBorder(3, 3, 3, 3));
+			buttons[questionId].setBorder(BorderFactory.createEmptyBorder(3, 3, 3, 3));
 		}
 	}
 
-	void setCurrentState(Question question, boolean state) {
+	void setCurrentState(int questionId, boolean state) {
 		if (state) {
 			// make button represent the currently displayed question
-			buttons.get(question).setBorder(BorderFactory.createLineBorder(Color.BLACK, 3));
+			buttons[questionId].setBorder(BorderFactory.createLineBorder(Color.BLACK, 3));
 		} else {
 			// unmark the marked question
-			buttons.get(question).setBorder(BorderFactory.createEmptyBorder(3, 3, 3, 3));
+			buttons[questionId].setBorder(BorderFactory.createEmptyBorder(3, 3, 3, 3));
 		}
 	}
 	void reset() {
-		for (Question q : buttons.keySet()) {
-			showState(q, GUI.QuestionState.UNTESTED);
-			setMarkedState(q, false);
-			setCurrentState(q, false);
+		for (int id = 0; id < buttons.length; id++) {
+			showState(id, GUI.QuestionState.UNTESTED);
+			setMarkedState(id, false);
+			setCurrentState(id, false);
 		}
 	}
-	private JButton createQuestionButton(Question question) {
-		JButton button = new JButton(String.format("%02d", question
-				.getQuestionNo() + 1));
-		button.setActionCommand(Integer.toString(question.getQuizNo()) + " "
-				+ Integer.toString(question.getQuestionNo()));
+	/**
+	 * @param questionId
+	 *            the id of the question, given as the action command
+	 * @param questionNo
+	 *            the number of the question within its quiz, shown
+	 */
+	private JButton createQuestionButton(int questionId, int questionNo) {
+		JButton button = new JButton(String.format("%02d", questionNo + 1));
+		button.setActionCommand(Integer.toString(questionId));
 		button.addActionListener(this);
 		button.setContentAreaFilled(false);
 		button.setOpaque(true);